@@ -0,0 +1,187 @@
+package bench;
+
+import flow.AllocationCounter;
+import flow.Flow;
+import joeq.Class.jq_Class;
+import joeq.Compiler.Quad.CodeCache;
+import joeq.Compiler.Quad.ControlFlowGraph;
+import joeq.Compiler.Quad.ControlFlowGraphVisitor;
+import joeq.Main.Helper;
+import submit.LivenessOpt;
+import submit.NullCheckOpt;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how fast every solver runs every analysis over the cfgs of a set
+ * of classes, in the spirit of a JMH throughput benchmark.
+ * <p>
+ * One operation is one visitCFG of every method of every class. Each
+ * solver/analysis pair gets some warmup iterations and then some measured
+ * iterations of a fixed length; the score is the mean number of operations
+ * per second with its 99.9% confidence interval, plus the bytes allocated per
+ * operation where the JVM can tell. The cfgs are loaded once up front; passes
+ * which modify the cfg (LivenessOpt) get freshly built cfgs before every
+ * operation, outside of the measured time.
+ * <p>
+ * Everything the analyses print is discarded while measuring. Settings:
+ * -Dbench.warmup=5, -Dbench.iterations=10, -Dbench.time=1000 (ms per
+ * iteration), -Dbench.solvers and -Dbench.analyses (comma separated class
+ * names, defaulting to all of them).
+ * <pre>
+ * ./run.sh bench.Benchmark test.NullTest test.QuickSort test.SkipList
+ * </pre>
+ */
+public class Benchmark {
+    private static final String[] SOLVERS = {
+            "flow.FlowSolver", "flow.WorklistSolver", "flow.OrderedSolver", "flow.BlockSolver",
+            "flow.InPlaceSolver", "flow.WtoSolver"};
+    private static final String[] ANALYSES = {
+            "flow.ConstantProp", "flow.Liveness", "flow.ReachingDefs", "flow.Faintness",
+            "submit.NullCheckOpt", "submit.LivenessOpt"};
+    private static final String[] CLASSES = {
+            "test.NullTest", "test.QuickSort", "test.SkipList", "test.LivenessTest"};
+
+    public static void main(String[] args) throws Exception {
+        int warmup = Integer.getInteger("bench.warmup", 5);
+        int iterations = Integer.getInteger("bench.iterations", 10);
+        long time = Long.getLong("bench.time", 1000);
+        String[] solvers = list("bench.solvers", SOLVERS);
+        String[] analyses = list("bench.analyses", ANALYSES);
+
+        final List<ControlFlowGraph> cfgs = new ArrayList<ControlFlowGraph>();
+        for (String name : args.length > 0 ? args : CLASSES) {
+            Helper.runPass((jq_Class) Helper.load(name), new ControlFlowGraphVisitor() {
+                public void visitCFG(ControlFlowGraph cfg) {
+                    cfgs.add(cfg);
+                }
+            });
+        }
+
+        PrintStream out = System.out, err = System.err;
+        PrintStream discard = new PrintStream(new OutputStream() {
+            public void write(int b) {
+            }
+
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        out.printf("%-40s %5s %4s %12s %10s %14s%n", "Benchmark", "Mode", "Cnt", "Score", "Error", "Units");
+        for (String solver : solvers) {
+            for (String analysis : analyses) {
+                boolean mutates = analysis.equals("submit.LivenessOpt");
+                String name = simpleName(solver) + "." + simpleName(analysis);
+                double[] scores = new double[iterations];
+                long bytes = 0, ops = 0;
+                System.setOut(discard);
+                System.setErr(discard);
+                try {
+                    for (int i = 0; i < warmup + iterations; ++i) {
+                        long[] r = iteration(solver, analysis, cfgs, mutates, time);
+                        if (i >= warmup) {
+                            scores[i - warmup] = r[0] * 1e9 / r[1];
+                            ops += r[0];
+                            bytes += r[2];
+                        }
+                    }
+                } catch (IllegalArgumentException e) {
+                    // a solver which can't run the analysis, e.g. one which doesn't widen
+                    System.setOut(out);
+                    out.printf("%-40s skipped: %s%n", name, e.getMessage());
+                    continue;
+                } finally {
+                    System.setOut(out);
+                    System.setErr(err);
+                }
+                if (mutates) {
+                    // the next benchmarks must see the original cfgs
+                    rebuild(cfgs);
+                }
+                double mean = mean(scores), error = error(scores, mean);
+                out.printf("%-40s %5s %4d %12.3f %10s %14s%n", name, "thrpt", iterations, mean,
+                        String.format("+- %.3f", error), "ops/s");
+                if (AllocationCounter.isSupported()) {
+                    out.printf("%-40s %5s %4d %12.1f %10s %14s%n", name + ":alloc.norm", "thrpt", iterations,
+                            (double) bytes / ops, "", "B/op");
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs operations for about `time` ms and returns {operations, nanos, allocated bytes}.
+     */
+    private static long[] iteration(String solverName, String analysisName, List<ControlFlowGraph> cfgs,
+                                    boolean mutates, long time) throws Exception {
+        Flow.Solver solver = (Flow.Solver) Class.forName(solverName).getDeclaredConstructor().newInstance();
+        solver.registerAnalysis(newAnalysis(analysisName));
+        long ops = 0, nanos = 0, bytes = 0;
+        long deadline = System.nanoTime() + time * 1000000L;
+        while (System.nanoTime() < deadline || ops == 0) {
+            if (mutates) {
+                rebuild(cfgs);
+            }
+            long b = AllocationCounter.currentThreadBytes();
+            long start = System.nanoTime();
+            for (ControlFlowGraph cfg : cfgs) {
+                solver.visitCFG(cfg);
+            }
+            nanos += System.nanoTime() - start;
+            bytes += AllocationCounter.currentThreadBytes() - b;
+            ++ops;
+        }
+        return new long[]{ops, nanos, bytes};
+    }
+
+    private static Flow.Analysis newAnalysis(String name) throws Exception {
+        // NullCheckOpt needs its flags, in report mode it leaves the cfg alone
+        if (name.equals("submit.NullCheckOpt")) {
+            return new NullCheckOpt(false, false);
+        }
+        if (name.equals("submit.LivenessOpt")) {
+            return new LivenessOpt();
+        }
+        return (Flow.Analysis) Class.forName(name).getDeclaredConstructor().newInstance();
+    }
+
+    // drops the cached cfgs and builds them again from the bytecode, in place
+    private static void rebuild(List<ControlFlowGraph> cfgs) {
+        for (int i = 0; i < cfgs.size(); ++i) {
+            ControlFlowGraph cfg = cfgs.get(i);
+            CodeCache.free(cfg);
+            cfgs.set(i, CodeCache.getCode(cfg.getMethod()));
+        }
+    }
+
+    private static String[] list(String property, String[] defaults) {
+        String value = System.getProperty(property);
+        return value == null ? defaults : value.split(",");
+    }
+
+    private static String simpleName(String className) {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    private static double mean(double[] xs) {
+        double sum = 0;
+        for (double x : xs) {
+            sum += x;
+        }
+        return sum / xs.length;
+    }
+
+    // half width of the 99.9% confidence interval, using the normal approximation
+    private static double error(double[] xs, double mean) {
+        if (xs.length < 2) {
+            return Double.NaN;
+        }
+        double sq = 0;
+        for (double x : xs) {
+            sq += (x - mean) * (x - mean);
+        }
+        return 3.291 * Math.sqrt(sq / (xs.length - 1)) / Math.sqrt(xs.length);
+    }
+}
@@ -0,0 +1,52 @@
+package flow;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+/**
+ * Reads the number of bytes allocated by the current thread, on JVMs whose
+ * ThreadMXBean supports it (com.sun.management.ThreadMXBean, JDK 6u25+).
+ * <p>
+ * The method is looked up reflectively, so this still loads and runs on
+ * the JDK 5 joeq needs, where it simply reports that it isn't supported.
+ */
+public class AllocationCounter {
+    private static final Object bean;
+    private static final Method method;
+
+    static {
+        Object b = null;
+        Method m = null;
+        try {
+            b = ManagementFactory.getThreadMXBean();
+            Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+            if (c.isInstance(b)) {
+                m = c.getMethod("getThreadAllocatedBytes", long.class);
+                m.invoke(b, Thread.currentThread().getId());
+            }
+        } catch (Throwable e) {
+            m = null;
+        }
+        bean = b;
+        method = m;
+    }
+
+    public static boolean isSupported() {
+        return method != null;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far,
+     * or -1 if that isn't supported.
+     */
+    public static long currentThreadBytes() {
+        if (method == null) {
+            return -1;
+        }
+        try {
+            return (Long) method.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package flow;
+
+import joeq.Compiler.Quad.*;
+import flow.Flow.DataflowObject;
+
+import java.util.*;
+
+/**
+ * Worklist implementation of the Flow.Solver interface which solves at the granularity
+ * of straight-line segments instead of single quads.
+ * <p>
+ * A segment is a maximal run of quads of one basic block in which every quad is the only
+ * successor of the previous one and the previous one is its only predecessor, so no meet
+ * is needed inside of it. During the fixpoint only the value at the end of each segment
+ * (OUT of its last quad for forward analyses, IN of its first quad for backward ones)
+ * is kept and compared. When the analysis implements Flow.BlockAnalysis, the quads inside
+ * a segment are transferred in place on a single value; the per-quad IN/OUT are filled in
+ * by one final pass before postprocess.
+ * <p>
+ * Values are never widened, so analyses whose values are Flow.WideningObjects
+ * are rejected with an IllegalArgumentException.
+ */
+public class BlockSolver implements Flow.Solver {
+
+  private Flow.Analysis analysis;
+  private SolverMetrics metrics;
+
+  public void registerAnalysis(Flow.Analysis analyzer) {
+    this.analysis = analyzer;
+  }
+
+  public void visitCFG(ControlFlowGraph cfg) {
+    metrics = SolverMetrics.begin(this, analysis, cfg);
+    // this needs to come first.
+    analysis.preprocess(cfg);
+    Widening.reject(this, analysis, metrics);
+
+    CfgIndex index = CfgIndex.of(cfg);
+    int numQuads = index.size();
+
+    // split the quads into segments. The ordinals are in reverse postorder, so a segment
+    // is a range of ordinals: segment s is segStart[s] .. segStart[s + 1] - 1
+    int[] segStart = new int[numQuads + 1];
+    int[] segmentOf = new int[numQuads];
+    int n = 0;
+    for (int i = 0; i < numQuads; ++i) {
+      boolean chained = i > 0 && index.predStart[i + 1] - index.predStart[i] == 1 && index.preds[index.predStart[i]] == i - 1
+          && index.succStart[i] - index.succStart[i - 1] == 1 && index.succs[index.succStart[i - 1]] == i;
+      if (!chained) {
+        segStart[n++] = i;
+      }
+      segmentOf[i] = n - 1;
+    }
+    segStart[n] = numQuads;
+
+    // neighbouring segments, -1 stands for the entry/exit of the cfg
+    int[][] segPreds = new int[n][], segSuccs = new int[n][];
+    for (int s = 0; s < n; ++s) {
+      int first = segStart[s], last = segStart[s + 1] - 1;
+      segPreds[s] = segmentsOf(index.preds, index.predStart[first], index.predStart[first + 1], segmentOf);
+      segSuccs[s] = segmentsOf(index.succs, index.succStart[last], index.succStart[last + 1], segmentOf);
+    }
+
+    boolean forward = analysis.isForward();
+    DataflowObject boundary = forward ? analysis.getEntry() : analysis.getExit();
+    // the value at the end of each segment, in the direction of the analysis
+    DataflowObject[] value = new DataflowObject[n];
+    for (int s = 0; s < n; ++s) {
+      value[s] = analysis.newTempVar();
+      ++metrics.temps;
+      ++metrics.copies;
+      value[s].copy(forward ? analysis.getOut(index.quad(segStart[s + 1] - 1)) : analysis.getIn(index.quad(segStart[s])));
+    }
+
+    IntQueue worklist = new IntQueue(n);
+    boolean[] queued = new boolean[n];
+    int[] visits = new int[n];
+    for (int i = 0; i < n; ++i) {
+      int s = forward ? i : n - 1 - i;
+      worklist.add(s);
+      queued[s] = true;
+    }
+    while (!worklist.isEmpty()) {
+      int s = worklist.remove();
+      queued[s] = false;
+      metrics.visited(++visits[s]);
+      DataflowObject val = meet(forward ? segPreds[s] : segSuccs[s], value, boundary);
+      val = transfer(index, segStart[s], segStart[s + 1], val, forward, false);
+      if (!val.equals(value[s])) {
+        value[s] = val;
+        for (int t : forward ? segSuccs[s] : segPreds[s]) {
+          if (t >= 0 && !queued[t]) {
+            queued[t] = true;
+            worklist.add(t);
+          }
+        }
+      }
+    }
+
+    // materialize the IN/OUT of every quad
+    for (int s = 0; s < n; ++s) {
+      DataflowObject val = meet(forward ? segPreds[s] : segSuccs[s], value, boundary);
+      transfer(index, segStart[s], segStart[s + 1], val, forward, true);
+    }
+
+    if (forward) {
+      analysis.setExit(Meets.exits(analysis, metrics, index));
+    } else if (n > 0) {
+      analysis.setEntry(analysis.getIn(index.quad(0)));
+    }
+
+    // this needs to come last.
+    analysis.postprocess(cfg);
+    metrics.end();
+  }
+
+  private static int[] segmentsOf(int[] adj, int from, int to, int[] segmentOf) {
+    int[] ret = new int[to - from];
+    for (int k = from; k < to; ++k) {
+      ret[k - from] = adj[k] == CfgIndex.ENTRY_EXIT ? -1 : segmentOf[adj[k]];
+    }
+    return ret;
+  }
+
+  // `boundary` is the fallback value for the entry/exit of the cfg
+  private DataflowObject meet(int[] segs, DataflowObject[] value, DataflowObject boundary) {
+    DataflowObject ret = analysis.newTempVar();
+    ++metrics.temps;
+    boolean first = true;
+    for (int s : segs) {
+      DataflowObject rhs = s < 0 ? boundary : value[s];
+      if (first) {
+        ret.copy(rhs);
+        ++metrics.copies;
+        first = false;
+      } else {
+        ret.meetWith(rhs);
+        ++metrics.meets;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Runs the transfer functions of the segment of ordinals from .. to - 1, starting with val at its beginning
+   * (in the direction of the analysis), and returns the value at its end.
+   * If materialize is false and the analysis is a Flow.BlockAnalysis, val is
+   * updated in place and the quads' own IN/OUT are left untouched.
+   */
+  private DataflowObject transfer(CfgIndex index, int from, int to, DataflowObject val, boolean forward,
+                                  boolean materialize) {
+    if (!materialize && analysis instanceof Flow.BlockAnalysis) {
+      Flow.BlockAnalysis block = (Flow.BlockAnalysis) analysis;
+      for (int i = from; i < to; ++i) {
+        block.transfer(index.quad(forward ? i : from + to - 1 - i), val);
+        ++metrics.transfers;
+      }
+      return val;
+    }
+    for (int i = from; i < to; ++i) {
+      Quad q = index.quad(forward ? i : from + to - 1 - i);
+      if (forward) {
+        analysis.setIn(q, val);
+        analysis.processQuad(q);
+        ++metrics.transfers;
+        val = analysis.getOut(q);
+      } else {
+        analysis.setOut(q, val);
+        analysis.processQuad(q);
+        ++metrics.transfers;
+        val = analysis.getIn(q);
+      }
+    }
+    // the analysis may hand out its own objects, which must not be kept by the solver
+    DataflowObject ret = analysis.newTempVar();
+    ret.copy(val);
+    ++metrics.temps;
+    ++metrics.copies;
+    return ret;
+  }
+}
@@ -0,0 +1,145 @@
+package flow;
+
+import joeq.Compiler.Quad.ControlFlowGraph;
+import joeq.Compiler.Quad.Quad;
+import joeq.Compiler.Quad.QuadIterator;
+
+import java.util.*;
+
+/**
+ * The quads of a cfg numbered densely, with their predecessors and
+ * successors (as given by QuadIterator, i.e. including exception edges)
+ * stored as ordinals in compressed rows.
+ * <p>
+ * Ordinals follow the order of QuadIterator, which is reverse postorder of
+ * the basic blocks, so ordinal 0 is the first quad after the entry. The
+ * predecessors of quad i are preds[predStart[i]] .. preds[predStart[i + 1] - 1],
+ * and likewise for successors; ENTRY_EXIT (-1) stands for the entry (as a
+ * predecessor) or the exit (as a successor) of the cfg.
+ * <p>
+ * of() caches one index per cfg. Passes which change the quads or edges of a
+ * cfg must call invalidate(); as a safety net an index is also rebuilt when
+ * the number of quads or the largest quad id of its cfg has changed.
+ */
+public class CfgIndex {
+    public static final int ENTRY_EXIT = -1;
+
+    private static final Map<ControlFlowGraph, CfgIndex> cache =
+            Collections.synchronizedMap(new WeakHashMap<ControlFlowGraph, CfgIndex>());
+
+    private final Quad[] quads;
+    // quad id -> ordinal, -1 for ids not in the cfg
+    private final int[] ordinalOf;
+    public final int[] predStart, preds, succStart, succs;
+    // ordinals of the quads which have the exit as a successor
+    private final int[] exits;
+    private final int numberOfQuads, maxQuadID;
+
+    private CfgIndex(ControlFlowGraph cfg) {
+        ArrayList<Quad> list = new ArrayList<Quad>();
+        ArrayList<Collection<Quad>> predList = new ArrayList<Collection<Quad>>();
+        ArrayList<Collection<Quad>> succList = new ArrayList<Collection<Quad>>();
+        int max = 0, numPreds = 0, numSuccs = 0;
+        for (QuadIterator it = new QuadIterator(cfg); it.hasNext(); ) {
+            Quad q = it.next();
+            list.add(q);
+            predList.add(it.predecessors1());
+            succList.add(it.successors1());
+            numPreds += predList.get(predList.size() - 1).size();
+            numSuccs += succList.get(succList.size() - 1).size();
+            max = Math.max(max, q.getID());
+        }
+        int n = list.size();
+        quads = list.toArray(new Quad[n]);
+        ordinalOf = new int[max + 1];
+        Arrays.fill(ordinalOf, -1);
+        for (int i = 0; i < n; ++i) {
+            ordinalOf[quads[i].getID()] = i;
+        }
+
+        predStart = new int[n + 1];
+        succStart = new int[n + 1];
+        preds = new int[numPreds];
+        succs = new int[numSuccs];
+        int numExits = 0;
+        for (int i = 0, p = 0, s = 0; i < n; ++i) {
+            predStart[i] = p;
+            for (Quad q : predList.get(i)) {
+                preds[p++] = q == null ? ENTRY_EXIT : ordinalOf[q.getID()];
+            }
+            succStart[i] = s;
+            for (Quad q : succList.get(i)) {
+                succs[s++] = q == null ? ENTRY_EXIT : ordinalOf[q.getID()];
+                if (q == null) {
+                    ++numExits;
+                }
+            }
+            predStart[i + 1] = p;
+            succStart[i + 1] = s;
+        }
+        exits = new int[numExits];
+        for (int i = 0, e = 0; i < n; ++i) {
+            for (int k = succStart[i]; k < succStart[i + 1]; ++k) {
+                if (succs[k] == ENTRY_EXIT) {
+                    exits[e++] = i;
+                }
+            }
+        }
+
+        numberOfQuads = n;
+        maxQuadID = cfg.getMaxQuadID();
+    }
+
+    /**
+     * Returns the index of cfg, building it if there is no valid one.
+     */
+    public static CfgIndex of(ControlFlowGraph cfg) {
+        CfgIndex index = cache.get(cfg);
+        if (index == null || index.maxQuadID != cfg.getMaxQuadID() || index.numberOfQuads != cfg.getNumberOfQuads()) {
+            index = new CfgIndex(cfg);
+            cache.put(cfg, index);
+        }
+        return index;
+    }
+
+    /**
+     * Drops the index of cfg, to be called after changing it.
+     */
+    public static void invalidate(ControlFlowGraph cfg) {
+        cache.remove(cfg);
+    }
+
+    /**
+     * Returns the number of quads.
+     */
+    public int size() {
+        return quads.length;
+    }
+
+    public Quad quad(int ordinal) {
+        return quads[ordinal];
+    }
+
+    /**
+     * Returns the ordinal of q, or -1 if q isn't in the cfg.
+     */
+    public int ordinal(Quad q) {
+        int id = q.getID();
+        return id < ordinalOf.length ? ordinalOf[id] : -1;
+    }
+
+    /**
+     * Returns the largest quad id in the cfg, plus one,
+     * i.e. the length of an array indexed by quad ids.
+     */
+    public int idLimit() {
+        return ordinalOf.length;
+    }
+
+    /**
+     * Returns the ordinals of the quads which are followed by the exit.
+     */
+    public int[] exits() {
+        return exits;
+    }
+}
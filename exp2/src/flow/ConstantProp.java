@@ -3,12 +3,14 @@ package flow;
 import joeq.Compiler.Quad.*;
 import joeq.Compiler.Quad.Operand.IConstOperand;
 import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.RegisterFactory.Register;
 import joeq.Main.Helper;
 
 import java.util.*;
 
-public class ConstantProp implements Flow.Analysis {
+public class ConstantProp implements Flow.BlockAnalysis {
 
+    private RegisterTable table;
     private ConstantPropTable[] in, out;
     private ConstantPropTable entry, exit;
     private TransferFunction transferfn = new TransferFunction();
@@ -25,36 +27,21 @@ public class ConstantProp implements Flow.Analysis {
         max += 1;
         in = new ConstantPropTable[max];
         out = new ConstantPropTable[max];
-        qit = new QuadIterator(cfg);
 
-        ConstantPropTable.reset();
+        /* Arguments are always there, the table interns them as well. */
+        table = new RegisterTable(cfg);
 
-        /* Arguments are always there. */
-        int numargs = cfg.getMethod().getParamTypes().length;
-        for (int i = 0; i < numargs; i++) {
-            ConstantPropTable.register("R" + i);
-        }
-
-        while (qit.hasNext()) {
-            Quad q = qit.next();
-            for (RegisterOperand def : q.getDefinedRegisters()) {
-                ConstantPropTable.register(def.getRegister().toString());
-            }
-            for (RegisterOperand use : q.getUsedRegisters()) {
-                ConstantPropTable.register(use.getRegister().toString());
-            }
-        }
-
-        entry = new ConstantPropTable();
-        exit = new ConstantPropTable();
-        transferfn.val = new ConstantPropTable();
+        entry = new ConstantPropTable(table);
+        exit = new ConstantPropTable(table);
+        transferfn.val = new ConstantPropTable(table);
         for (int i = 0; i < in.length; i++) {
-            in[i] = new ConstantPropTable();
-            out[i] = new ConstantPropTable();
+            in[i] = new ConstantPropTable(table);
+            out[i] = new ConstantPropTable(table);
         }
 
+        int numargs = cfg.getMethod().getParamTypes().length;
         for (int i = 0; i < numargs; i++) {
-            entry.setNAC("R" + i);
+            entry.setNAC(table.indexOfLocal(i));
         }
         System.out.println("Initialization completed.");
     }
@@ -95,16 +82,17 @@ public class ConstantProp implements Flow.Analysis {
         exit.copy(value);
     }
 
+    /* getIn and getOut hand out the stored tables instead of copies.
+     * processQuad never writes into out[ID], it swaps the new OUT with
+     * its scratch table, so a table returned by getOut(q) keeps the old
+     * value across processQuad(q), which is what the solvers compare. */
+
     public Flow.DataflowObject getIn(Quad q) {
-        Flow.DataflowObject result = newTempVar();
-        result.copy(in[q.getID()]);
-        return result;
+        return in[q.getID()];
     }
 
     public Flow.DataflowObject getOut(Quad q) {
-        Flow.DataflowObject result = newTempVar();
-        result.copy(out[q.getID()]);
-        return result;
+        return out[q.getID()];
     }
 
     public void setIn(Quad q, Flow.DataflowObject value) {
@@ -116,13 +104,22 @@ public class ConstantProp implements Flow.Analysis {
     }
 
     public Flow.DataflowObject newTempVar() {
-        return new ConstantPropTable();
+        return new ConstantPropTable(table);
     }
 
     public void processQuad(Quad q) {
-        transferfn.val.copy(in[q.getID()]);
+        ConstantPropTable val = transferfn.val;
+        val.copy(in[q.getID()]);
         Helper.runPass(q, transferfn);
-        out[q.getID()].copy(transferfn.val);
+        transferfn.val = out[q.getID()];
+        out[q.getID()] = val;
+    }
+
+    public void transfer(Quad q, Flow.DataflowObject value) {
+        ConstantPropTable val = transferfn.val;
+        transferfn.val = (ConstantPropTable) value;
+        Helper.runPass(q, transferfn);
+        transferfn.val = val;
     }
 
     /* Actually perform the transfer operation on the relevant
@@ -233,91 +230,131 @@ public class ConstantProp implements Flow.Analysis {
         }
     }
 
+    /**
+     * The lattice values of all registers at one program point, stored in
+     * parallel arrays indexed by the ids of a RegisterTable: state[id] is one
+     * of UNDEF, CONST and NAC, and constant[id] is the value when the state
+     * is CONST (and 0 otherwise, so that equals can compare whole arrays).
+     */
     public static class ConstantPropTable implements Flow.DataflowObject {
-        /* 'core' is used to keep track of which variables we need to
-         * track */
-        private static Set<String> core = new HashSet<String>();
-        private SortedMap<String, SingleCP> map;
-
-        public ConstantPropTable() {
-            map = new TreeMap<String, SingleCP>();
-            for (String key : core) {
-                map.put(key, new SingleCP());
-            }
-        }
+        public static final byte UNDEF = 0, CONST = 1, NAC = 2;
 
-        public static void reset() {
-            core.clear();
-        }
+        /* 'table' is used to keep track of which variables we need to
+         * track */
+        private RegisterTable table;
+        private byte[] state;
+        private int[] constant;
 
-        public static void register(String key) {
-            core.add(key);
+        public ConstantPropTable(RegisterTable table) {
+            this.table = table;
+            state = new byte[table.size()];
+            constant = new int[table.size()];
         }
 
         public void setToTop() {
-            for (SingleCP lattice : map.values()) {
-                lattice.setToTop();
-            }
+            Arrays.fill(state, UNDEF);
+            Arrays.fill(constant, 0);
         }
 
         public void setToBottom() {
-            for (SingleCP lattice : map.values()) {
-                lattice.setToBottom();
-            }
+            Arrays.fill(state, NAC);
+            Arrays.fill(constant, 0);
         }
 
         public void meetWith(Flow.DataflowObject o) {
             ConstantPropTable a = (ConstantPropTable) o;
-            for (Map.Entry<String, SingleCP> e : a.map.entrySet()) {
-                SingleCP mine = map.get(e.getKey());
-                mine.meetWith(e.getValue());
+            for (int i = 0; i < state.length; ++i) {
+                byte s = a.state[i];
+                if (s == UNDEF || state[i] == NAC) {
+                    continue;
+                }
+                if (state[i] == UNDEF) {
+                    state[i] = s;
+                    constant[i] = a.constant[i];
+                } else if (s == NAC || constant[i] != a.constant[i]) {
+                    /* both are constants, or a is NAC */
+                    setNAC(i);
+                }
             }
         }
 
         public void copy(Flow.DataflowObject o) {
             ConstantPropTable a = (ConstantPropTable) o;
-            for (Map.Entry<String, SingleCP> e : a.map.entrySet()) {
-                SingleCP mine = map.get(e.getKey());
-                mine.copy(e.getValue());
-            }
+            System.arraycopy(a.state, 0, state, 0, state.length);
+            System.arraycopy(a.constant, 0, constant, 0, constant.length);
         }
 
         @Override
         public String toString() {
-            return map.toString();
-        }
-
-        public SingleCP get(String key) {
-            return map.get(key);
+            StringBuilder sb = new StringBuilder("{");
+            for (int i = 0; i < state.length; ++i) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(table.nameOf(i)).append('=');
+                switch (state[i]) {
+                    case UNDEF:
+                        sb.append("undef");
+                        break;
+                    case CONST:
+                        sb.append(constant[i]);
+                        break;
+                    default:
+                        sb.append("NAC");
+                        break;
+                }
+            }
+            return sb.append('}').toString();
         }
 
         @Override
         public boolean equals(Object o) {
             if (o instanceof ConstantPropTable) {
-                return map.equals(((ConstantPropTable) o).map);
+                ConstantPropTable a = (ConstantPropTable) o;
+                return Arrays.equals(state, a.state) && Arrays.equals(constant, a.constant);
             }
             return false;
         }
 
         @Override
         public int hashCode() {
-            return map.hashCode();
+            return Arrays.hashCode(state);
+        }
+
+        public boolean isUndef(int id) {
+            return state[id] == UNDEF;
         }
 
-        public void setUndef(String key) {
-            get(key).setUndef();
+        public boolean isConst(int id) {
+            return state[id] == CONST;
         }
 
-        public void setConst(String key, int val) {
-            get(key).setConst(val);
+        public boolean isNAC(int id) {
+            return state[id] == NAC;
         }
 
-        public void setNAC(String key) {
-            get(key).setNAC();
+        public int getConst(int id) {
+            return constant[id];
         }
 
-        public void transfer(String key, String src) {
-            get(key).copy(get(src));
+        public void setUndef(int id) {
+            state[id] = UNDEF;
+            constant[id] = 0;
+        }
+
+        public void setConst(int id, int val) {
+            state[id] = CONST;
+            constant[id] = val;
+        }
+
+        public void setNAC(int id) {
+            state[id] = NAC;
+            constant[id] = 0;
+        }
+
+        public void transfer(int id, int src) {
+            state[id] = state[src];
+            constant[id] = constant[src];
         }
     }
 
@@ -328,7 +365,7 @@ public class ConstantProp implements Flow.Analysis {
         @Override
         public void visitMove(Quad q) {
             Operand op = Operator.Move.getSrc(q);
-            String key = Operator.Move.getDest(q).getRegister().toString();
+            int key = id(Operator.Move.getDest(q).getRegister());
 
             if (isUndef(op)) {
                 val.setUndef(key);
@@ -343,7 +380,7 @@ public class ConstantProp implements Flow.Analysis {
         public void visitBinary(Quad q) {
             Operand op1 = Operator.Binary.getSrc1(q);
             Operand op2 = Operator.Binary.getSrc2(q);
-            String key = Operator.Binary.getDest(q).getRegister().toString();
+            int key = id(Operator.Binary.getDest(q).getRegister());
             Operator opr = q.getOperator();
 
             if (opr == Operator.Binary.ADD_I.INSTANCE) {
@@ -362,7 +399,7 @@ public class ConstantProp implements Flow.Analysis {
         @Override
         public void visitUnary(Quad q) {
             Operand op = Operator.Unary.getSrc(q);
-            String key = Operator.Unary.getDest(q).getRegister().toString();
+            int key = id(Operator.Unary.getDest(q).getRegister());
             Operator opr = q.getOperator();
 
             if (opr == Operator.Unary.NEG_I.INSTANCE) {
@@ -380,43 +417,43 @@ public class ConstantProp implements Flow.Analysis {
 
         @Override
         public void visitALoad(Quad q) {
-            String key = Operator.ALoad.getDest(q).getRegister().toString();
+            int key = id(Operator.ALoad.getDest(q).getRegister());
             val.setNAC(key);
         }
 
         @Override
         public void visitALength(Quad q) {
-            String key = Operator.ALength.getDest(q).getRegister().toString();
+            int key = id(Operator.ALength.getDest(q).getRegister());
             val.setNAC(key);
         }
 
         @Override
         public void visitGetstatic(Quad q) {
-            String key = Operator.Getstatic.getDest(q).getRegister().toString();
+            int key = id(Operator.Getstatic.getDest(q).getRegister());
             val.setNAC(key);
         }
 
         @Override
         public void visitGetfield(Quad q) {
-            String key = Operator.Getfield.getDest(q).getRegister().toString();
+            int key = id(Operator.Getfield.getDest(q).getRegister());
             val.setNAC(key);
         }
 
         @Override
         public void visitInstanceOf(Quad q) {
-            String key = Operator.InstanceOf.getDest(q).getRegister().toString();
+            int key = id(Operator.InstanceOf.getDest(q).getRegister());
             val.setNAC(key);
         }
 
         @Override
         public void visitNew(Quad q) {
-            String key = Operator.New.getDest(q).getRegister().toString();
+            int key = id(Operator.New.getDest(q).getRegister());
             val.setNAC(key);
         }
 
         @Override
         public void visitNewArray(Quad q) {
-            String key = Operator.NewArray.getDest(q).getRegister().toString();
+            int key = id(Operator.NewArray.getDest(q).getRegister());
             val.setNAC(key);
         }
 
@@ -424,37 +461,37 @@ public class ConstantProp implements Flow.Analysis {
         public void visitInvoke(Quad q) {
             RegisterOperand op = Operator.Invoke.getDest(q);
             if (op != null) {
-                String key = op.getRegister().toString();
+                int key = id(op.getRegister());
                 val.setNAC(key);
             }
         }
 
         @Override
         public void visitJsr(Quad q) {
-            String key = Operator.Jsr.getDest(q).getRegister().toString();
+            int key = id(Operator.Jsr.getDest(q).getRegister());
             val.setNAC(key);
         }
 
         @Override
         public void visitCheckCast(Quad q) {
-            String key = Operator.CheckCast.getDest(q).getRegister().toString();
+            int key = id(Operator.CheckCast.getDest(q).getRegister());
             val.setNAC(key);
         }
 
         private boolean isUndef(Operand op) {
             return (op instanceof RegisterOperand &&
-                    val.get(((RegisterOperand) op).getRegister().toString()).isUndef());
+                    val.isUndef(id(((RegisterOperand) op).getRegister())));
         }
 
         private boolean isConst(Operand op) {
             return (op instanceof IConstOperand) ||
                     (op instanceof RegisterOperand &&
-                            val.get(((RegisterOperand) op).getRegister().toString()).isConst());
+                            val.isConst(id(((RegisterOperand) op).getRegister())));
         }
 
         private boolean isNAC(Operand op) {
             return (op instanceof RegisterOperand &&
-                    val.get(((RegisterOperand) op).getRegister().toString()).isNAC());
+                    val.isNAC(id(((RegisterOperand) op).getRegister())));
         }
 
         private int getConst(Operand op) {
@@ -462,11 +499,15 @@ public class ConstantProp implements Flow.Analysis {
                 return ((IConstOperand) op).getValue();
             }
             if (op instanceof RegisterOperand) {
-                SingleCP o = val.get(((RegisterOperand) op).getRegister().toString());
-                if (o.state == 1)
-                    return o.getConst();
+                int key = id(((RegisterOperand) op).getRegister());
+                if (val.isConst(key))
+                    return val.getConst(key);
             }
             throw new IllegalArgumentException("Tried to getConst a non-Const!");
         }
+
+        private int id(Register r) {
+            return val.table.indexOf(r);
+        }
     }
 }
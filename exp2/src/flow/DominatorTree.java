@@ -0,0 +1,366 @@
+package flow;
+
+import joeq.Compiler.Quad.BasicBlock;
+import joeq.Compiler.Quad.ControlFlowGraph;
+
+import java.util.*;
+
+/**
+ * The dominator or post-dominator tree of the basic blocks of a cfg, and
+ * their dominance frontiers, computed with the iterative algorithm of
+ * Cooper, Harvey and Kennedy ("A Simple, Fast Dominance Algorithm").
+ * <p>
+ * The edges are the successors of a block plus the entries of its exception
+ * handlers, so a handler is dominated by the blocks it protects. Blocks are
+ * numbered in reverse postorder from the root (the entry, or the exit for
+ * post-dominators) along the edges (reversed for post-dominators); blocks
+ * which can't be reached that way have no number and no dominator, e.g.
+ * the blocks of an infinite loop have no post-dominator.
+ * <p>
+ * The tree is numbered once more in depth first order, so dominates() is a
+ * range check. of() and postOf() cache one tree of each kind per cfg.
+ * Passes which change the edges of a cfg must call invalidate(); as a
+ * safety net a tree is also rebuilt when the number of blocks has changed.
+ */
+public class DominatorTree {
+    private static final Map<ControlFlowGraph, DominatorTree> dominators =
+            Collections.synchronizedMap(new WeakHashMap<ControlFlowGraph, DominatorTree>());
+    private static final Map<ControlFlowGraph, DominatorTree> postDominators =
+            Collections.synchronizedMap(new WeakHashMap<ControlFlowGraph, DominatorTree>());
+
+    private final boolean post;
+    private final int numberOfBlocks;
+    private final BasicBlock[] blocks;
+    // block id -> reverse postorder number, -1 for blocks not reached
+    private final int[] number;
+    // reverse postorder number -> that of the immediate dominator, the root is its own
+    final int[] idom;
+    // the predecessors, children in the tree and frontier of block i, as
+    // reverse postorder numbers in compressed rows like CfgIndex
+    final int[] predStart, preds, childStart, children, frontierStart, frontier;
+    // depth first number of block i in the tree, and the largest one in its subtree
+    private final int[] pre, last;
+
+    /**
+     * Computes the dominator tree of cfg, or its post-dominator tree if post is true.
+     * Use of() or postOf() to share it with the other passes.
+     */
+    public DominatorTree(ControlFlowGraph cfg, boolean post) {
+        this.post = post;
+        numberOfBlocks = cfg.getNumberOfBasicBlocks();
+        // the reversed edges, of the blocks reachable from the entry
+        HashMap<BasicBlock, List<BasicBlock>> reverse = null;
+        if (post) {
+            reverse = new HashMap<BasicBlock, List<BasicBlock>>();
+            for (BasicBlock b : postorder(cfg.entry(), null)) {
+                for (BasicBlock s : successors(b)) {
+                    List<BasicBlock> list = reverse.get(s);
+                    if (list == null) {
+                        list = new ArrayList<BasicBlock>(2);
+                        reverse.put(s, list);
+                    }
+                    list.add(b);
+                }
+            }
+        }
+
+        ArrayList<BasicBlock> order = postorder(post ? cfg.exit() : cfg.entry(), reverse);
+        int n = order.size(), maxID = 0;
+        for (BasicBlock b : order) {
+            maxID = Math.max(maxID, b.getID());
+        }
+        blocks = new BasicBlock[n];
+        number = new int[maxID + 1];
+        Arrays.fill(number, -1);
+        for (int i = 0; i < n; ++i) {
+            blocks[i] = order.get(n - 1 - i);
+            number[blocks[i].getID()] = i;
+        }
+
+        // predecessors, from the successor lists so that exception edges are included
+        int[] numPreds = new int[n];
+        for (int i = 0; i < n; ++i) {
+            for (BasicBlock s : edges(blocks[i], reverse)) {
+                ++numPreds[number[s.getID()]];
+            }
+        }
+        predStart = new int[n + 1];
+        for (int i = 0; i < n; ++i) {
+            predStart[i + 1] = predStart[i] + numPreds[i];
+        }
+        preds = new int[predStart[n]];
+        int[] fill = new int[n];
+        for (int i = 0; i < n; ++i) {
+            for (BasicBlock s : edges(blocks[i], reverse)) {
+                int j = number[s.getID()];
+                preds[predStart[j] + fill[j]++] = i;
+            }
+        }
+
+        idom = new int[n];
+        Arrays.fill(idom, -1);
+        if (n > 0) {
+            idom[0] = 0;
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < n; ++i) {
+                int d = -1;
+                for (int k = predStart[i]; k < predStart[i + 1]; ++k) {
+                    int p = preds[k];
+                    if (idom[p] != -1) {
+                        d = d == -1 ? p : intersect(p, d);
+                    }
+                }
+                if (idom[i] != d) {
+                    idom[i] = d;
+                    changed = true;
+                }
+            }
+        }
+
+        int[] count = new int[n + 1];
+        for (int i = 1; i < n; ++i) {
+            ++count[idom[i]];
+        }
+        childStart = prefixSums(count, n);
+        children = new int[childStart[n]];
+        Arrays.fill(fill, 0);
+        for (int i = 1; i < n; ++i) {
+            children[childStart[idom[i]] + fill[idom[i]]++] = i;
+        }
+
+        // a join point is in the frontier of every block from its predecessors
+        // up to (excluding) its immediate dominator; the first pass counts
+        int[] marked = new int[n];
+        Arrays.fill(count, 0);
+        int[] start = null;
+        int[] list = null;
+        for (int pass = 0; pass < 2; ++pass) {
+            Arrays.fill(marked, -1);
+            Arrays.fill(fill, 0);
+            for (int i = 0; i < n; ++i) {
+                if (predStart[i + 1] - predStart[i] < 2) {
+                    continue;
+                }
+                for (int k = predStart[i]; k < predStart[i + 1]; ++k) {
+                    for (int r = preds[k]; r != idom[i] && marked[r] != i; r = idom[r]) {
+                        marked[r] = i;
+                        if (pass == 0) {
+                            ++count[r];
+                        } else {
+                            list[start[r] + fill[r]++] = i;
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                start = prefixSums(count, n);
+                list = new int[start[n]];
+            }
+        }
+        frontierStart = start;
+        frontier = list;
+
+        // depth first numbering of the tree
+        pre = new int[n];
+        last = new int[n];
+        int[] stack = new int[2 * n];
+        int top = 0, next = 0;
+        if (n > 0) {
+            stack[top++] = 1;
+        }
+        while (top > 0) {
+            // a block is pushed as i + 1 to enter it and as -(i + 1) to leave it
+            int e = stack[--top];
+            if (e < 0) {
+                last[-e - 1] = next - 1;
+                continue;
+            }
+            int i = e - 1;
+            pre[i] = next++;
+            stack[top++] = -e;
+            for (int k = childStart[i + 1] - 1; k >= childStart[i]; --k) {
+                stack[top++] = children[k] + 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the dominator tree of cfg, computing it if there is no valid one.
+     */
+    public static DominatorTree of(ControlFlowGraph cfg) {
+        return cached(dominators, cfg, false);
+    }
+
+    /**
+     * Returns the post-dominator tree of cfg, computing it if there is no valid one.
+     */
+    public static DominatorTree postOf(ControlFlowGraph cfg) {
+        return cached(postDominators, cfg, true);
+    }
+
+    private static DominatorTree cached(Map<ControlFlowGraph, DominatorTree> cache, ControlFlowGraph cfg,
+                                        boolean post) {
+        DominatorTree tree = cache.get(cfg);
+        if (tree == null || tree.numberOfBlocks != cfg.getNumberOfBasicBlocks()) {
+            tree = new DominatorTree(cfg, post);
+            cache.put(cfg, tree);
+        }
+        return tree;
+    }
+
+    /**
+     * Drops both trees of cfg, to be called after changing its edges.
+     */
+    public static void invalidate(ControlFlowGraph cfg) {
+        dominators.remove(cfg);
+        postDominators.remove(cfg);
+    }
+
+    // the blocks reachable from root along the edges, in postorder
+    private static ArrayList<BasicBlock> postorder(BasicBlock root, Map<BasicBlock, List<BasicBlock>> reverse) {
+        ArrayList<BasicBlock> ret = new ArrayList<BasicBlock>();
+        HashSet<BasicBlock> seen = new HashSet<BasicBlock>();
+        ArrayList<BasicBlock> stack = new ArrayList<BasicBlock>();
+        ArrayList<Iterator<BasicBlock>> its = new ArrayList<Iterator<BasicBlock>>();
+        stack.add(root);
+        its.add(edges(root, reverse).iterator());
+        seen.add(root);
+        while (!stack.isEmpty()) {
+            Iterator<BasicBlock> it = its.get(its.size() - 1);
+            if (it.hasNext()) {
+                BasicBlock s = it.next();
+                if (seen.add(s)) {
+                    stack.add(s);
+                    its.add(edges(s, reverse).iterator());
+                }
+            } else {
+                ret.add(stack.remove(stack.size() - 1));
+                its.remove(its.size() - 1);
+            }
+        }
+        return ret;
+    }
+
+    // the successors of b, or its predecessors if reverse holds them
+    private static List<BasicBlock> edges(BasicBlock b, Map<BasicBlock, List<BasicBlock>> reverse) {
+        if (reverse == null) {
+            return successors(b);
+        }
+        List<BasicBlock> ret = reverse.get(b);
+        return ret == null ? Collections.<BasicBlock>emptyList() : ret;
+    }
+
+    private static int[] prefixSums(int[] count, int n) {
+        int[] start = new int[n + 1];
+        for (int i = 0; i < n; ++i) {
+            start[i + 1] = start[i] + count[i];
+        }
+        return start;
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (a > b) {
+                a = idom[a];
+            }
+            while (b > a) {
+                b = idom[b];
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Returns the successors of b followed by the entries of its exception handlers.
+     */
+    static List<BasicBlock> successors(BasicBlock b) {
+        List<BasicBlock> handlers = b.getExceptionHandlerEntries();
+        if (handlers.isEmpty()) {
+            return b.getSuccessors();
+        }
+        ArrayList<BasicBlock> ret = new ArrayList<BasicBlock>(b.getSuccessors());
+        ret.addAll(handlers);
+        return ret;
+    }
+
+    /**
+     * Returns true for a post-dominator tree.
+     */
+    public boolean isPost() {
+        return post;
+    }
+
+    /**
+     * Returns the number of blocks reachable from the root.
+     */
+    public int size() {
+        return blocks.length;
+    }
+
+    /**
+     * Returns the i-th block in reverse postorder, block(0) is the root.
+     */
+    public BasicBlock block(int i) {
+        return blocks[i];
+    }
+
+    /**
+     * Returns the reverse postorder number of b, or -1 if it isn't reachable.
+     */
+    public int number(BasicBlock b) {
+        int id = b.getID();
+        return id < number.length ? number[id] : -1;
+    }
+
+    /**
+     * Returns the immediate dominator of b, or null for the root and
+     * unreachable blocks.
+     */
+    public BasicBlock idom(BasicBlock b) {
+        int i = number(b);
+        return i <= 0 ? null : blocks[idom[i]];
+    }
+
+    /**
+     * Returns the blocks immediately dominated by b.
+     */
+    public List<BasicBlock> children(BasicBlock b) {
+        return toBlocks(number(b), childStart, children);
+    }
+
+    /**
+     * Returns the dominance frontier of b, i.e. the blocks which have a
+     * predecessor dominated by b but are not strictly dominated by b.
+     */
+    public List<BasicBlock> frontier(BasicBlock b) {
+        return toBlocks(number(b), frontierStart, frontier);
+    }
+
+    private List<BasicBlock> toBlocks(int i, int[] start, int[] list) {
+        if (i < 0) {
+            return Collections.emptyList();
+        }
+        ArrayList<BasicBlock> ret = new ArrayList<BasicBlock>(start[i + 1] - start[i]);
+        for (int k = start[i]; k < start[i + 1]; ++k) {
+            ret.add(blocks[list[k]]);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns true if every path from the root to b passes through a, i.e.
+     * from the entry to b, or from b to the exit for a post-dominator tree.
+     * Every block dominates itself.
+     */
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        int i = number(a), j = number(b);
+        return i >= 0 && j >= 0 && pre[i] <= pre[j] && pre[j] <= last[i];
+    }
+
+    public boolean strictlyDominates(BasicBlock a, BasicBlock b) {
+        return a != b && dominates(a, b);
+    }
+}
@@ -6,8 +6,7 @@ import joeq.Compiler.Quad.Operator;
 import joeq.Compiler.Quad.Quad;
 import joeq.Compiler.Quad.QuadIterator;
 
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.BitSet;
 
 /**
  * Skeleton class for implementing a faint variable analysis
@@ -23,6 +22,7 @@ public class Faintness implements Flow.Analysis {
      * You are free to modify these fields, just make sure to
      * preserve the data printed by postprocess(), which relies on these.
      */
+    private RegisterTable table;
     private VarSet[] in, out;
     private VarSet entry, exit;
 
@@ -45,28 +45,9 @@ public class Faintness implements Flow.Analysis {
         }
         max += 1;
 
-        // Begin computing the universal set. This needs to be done before
-        // any VarSet objects are created.
-        Set<String> s = new TreeSet<String>();
-        VarSet.universalSet = s;
-
-        /* Arguments are always there. */
-        int numargs = cfg.getMethod().getParamTypes().length;
-        for (int i = 0; i < numargs; i++) {
-            s.add("R" + i);
-        }
-
-        qit = new QuadIterator(cfg);
-        while (qit.hasNext()) {
-            Quad q = qit.next();
-            for (RegisterOperand def : q.getDefinedRegisters()) {
-                s.add(def.getRegister().toString());
-            }
-            for (RegisterOperand use : q.getUsedRegisters()) {
-                s.add(use.getRegister().toString());
-            }
-        }
-        // End computing the universal set
+        // Intern the registers (arguments included). This needs to be done
+        // before any VarSet objects are created.
+        table = new RegisterTable(cfg);
 
         // allocate the in and out arrays.
         in = new VarSet[max];
@@ -76,15 +57,15 @@ public class Faintness implements Flow.Analysis {
         qit = new QuadIterator(cfg);
         while (qit.hasNext()) {
             int id = qit.next().getID();
-            in[id] = new VarSet();
-            out[id] = new VarSet();
+            in[id] = new VarSet(table);
+            out[id] = new VarSet(table);
         }
 
         // initialize the entry and exit points.
-        entry = new VarSet();
-        exit = new VarSet();
+        entry = new VarSet(table);
+        exit = new VarSet(table);
 
-        // Most of my initialization is above (computing the universal set)
+        // Most of my initialization is above (interning the registers)
         System.out.println("Initialization completed.");
     }
 
@@ -159,7 +140,7 @@ public class Faintness implements Flow.Analysis {
     }
 
     public Flow.DataflowObject newTempVar() {
-        return new VarSet();
+        return new VarSet(table);
     }
 
     public void processQuad(Quad q) {
@@ -168,23 +149,24 @@ public class Faintness implements Flow.Analysis {
         if (q.getOperator() instanceof Operator.Move || q.getOperator() instanceof Operator.Binary) {
             // Get the defined register (we know there's exactly one)
             RegisterOperand def = q.getDefinedRegisters().iterator().next();
-            boolean defWasFaint = val.isFaint(def.getRegister().toString());
+            int d = table.indexOf(def.getRegister());
+            boolean defWasFaint = val.isFaint(d);
             // Make the defined register faint
-            val.setFaint(def.getRegister().toString());
+            val.setFaint(d);
 
             // If the defined register was not faint, make the used registers not faint
             if (!defWasFaint) {
                 for (RegisterOperand use : q.getUsedRegisters()) {
-                    val.setNotFaint(use.getRegister().toString());
+                    val.setNotFaint(table.indexOf(use.getRegister()));
                 }
             }
         } else {
             // For all other quads behave similarly to liveness analysis
             for (RegisterOperand def : q.getDefinedRegisters()) {
-                val.setFaint(def.getRegister().toString());
+                val.setFaint(table.indexOf(def.getRegister()));
             }
             for (RegisterOperand use : q.getUsedRegisters()) {
-                val.setNotFaint(use.getRegister().toString());
+                val.setNotFaint(table.indexOf(use.getRegister()));
             }
         }
         setIn(q, val);
@@ -195,14 +177,16 @@ public class Faintness implements Flow.Analysis {
      * Based very closely on the class flow.Liveness.VarSet
      */
     public static class VarSet implements Flow.DataflowObject {
-        static Set<String> universalSet;
-        private Set<String> set;
+        private RegisterTable table;
+        private BitSet set;
 
         /**
          * The default value has all registers faint
          */
-        VarSet() {
-            set = new TreeSet<String>(universalSet);
+        VarSet(RegisterTable table) {
+            this.table = table;
+            set = new BitSet(table.size());
+            set.set(0, table.size());
         }
 
         /**
@@ -212,11 +196,11 @@ public class Faintness implements Flow.Analysis {
          * Most are similar to the methods in flow.Liveness.VarSet
          */
         public void setToTop() {
-            set = new TreeSet<String>(universalSet);
+            set.set(0, table.size());
         }
 
         public void setToBottom() {
-            set = new TreeSet<String>();
+            set.clear();
         }
 
         /**
@@ -224,12 +208,13 @@ public class Faintness implements Flow.Analysis {
          */
         public void meetWith(Flow.DataflowObject o) {
             VarSet a = (VarSet) o;
-            set.retainAll(a.set); // strange name for intersect
+            set.and(a.set);
         }
 
         public void copy(Flow.DataflowObject o) {
             VarSet a = (VarSet) o;
-            set = new TreeSet<String>(a.set);
+            set.clear();
+            set.or(a.set);
         }
 
         @Override
@@ -257,19 +242,19 @@ public class Faintness implements Flow.Analysis {
          */
         @Override
         public String toString() {
-            return set.toString();
+            return table.toString(set);
         }
 
-        void setFaint(String v) {
-            set.add(v);
+        void setFaint(int v) {
+            set.set(v);
         }
 
-        void setNotFaint(String v) {
-            set.remove(v);
+        void setNotFaint(int v) {
+            set.clear(v);
         }
 
-        boolean isFaint(String v) {
-            return set.contains(v);
+        boolean isFaint(int v) {
+            return set.get(v);
         }
     }
 }
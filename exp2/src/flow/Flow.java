@@ -6,6 +6,10 @@ import joeq.Compiler.Quad.ControlFlowGraphVisitor;
 import joeq.Compiler.Quad.Quad;
 import joeq.Main.Helper;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 public abstract class Flow {
 
     public static void main(String[] args) {
@@ -18,11 +22,11 @@ public abstract class Flow {
         String solver_name = args[0];
         String analysis_name = args[1];
 
-        // get an instance of the solver class.
-        Solver solver;
+        // get the solver and analysis classes; every run of a solver gets
+        // its own instances of both.
+        Class<? extends Solver> solverClass;
         try {
-            Object solver_obj = Class.forName(solver_name).newInstance();
-            solver = (Solver) solver_obj;
+            solverClass = Class.forName(solver_name).asSubclass(Solver.class);
         } catch (Exception ex) {
             System.out.println("ERROR: Could not load class '" + solver_name +
                     "' as Solver: " + ex.toString());
@@ -30,11 +34,9 @@ public abstract class Flow {
             return;
         }
 
-        // get an instance of the analysis class.
-        Analysis analysis;
+        Class<? extends Analysis> analysisClass;
         try {
-            Object analysis_obj = Class.forName(analysis_name).newInstance();
-            analysis = (Analysis) analysis_obj;
+            analysisClass = Class.forName(analysis_name).asSubclass(Analysis.class);
         } catch (Exception ex) {
             System.out.println("ERROR: Could not load class '" + analysis_name +
                     "' as Analysis: " + ex.toString());
@@ -47,13 +49,47 @@ public abstract class Flow {
         for (int i = 0; i < classes.length; i++)
             classes[i] = (jq_Class) Helper.load(args[i + 2]);
 
-        // register the analysis with the solver.
-        solver.registerAnalysis(analysis);
-
         // visit each of the specified classes with the solver.
-        for (int i = 0; i < classes.length; i++) {
-            System.out.println("Now analyzing " + classes[i].getName());
-            Helper.runPass(classes[i], solver);
+        ParallelRunner runner = new ParallelRunner();
+        if (runner.getThreads() <= 1) {
+            Solver solver = newSolver(solverClass, analysisClass);
+            for (int i = 0; i < classes.length; i++) {
+                System.out.println("Now analyzing " + classes[i].getName());
+                Helper.runPass(classes[i], solver);
+            }
+            SolverMetrics.report();
+            return;
+        }
+
+        // every worker gets its own solver and analysis.
+        List<String> headers = new ArrayList<String>();
+        for (jq_Class clazz : classes)
+            headers.add("Now analyzing " + clazz.getName());
+        final Class<? extends Solver> solverType = solverClass;
+        final Class<? extends Analysis> analysisType = analysisClass;
+        runner.run(Arrays.asList(classes), headers, new ParallelRunner.Factory() {
+            public ControlFlowGraphVisitor create() {
+                return newSolver(solverType, analysisType);
+            }
+        });
+        SolverMetrics.report();
+    }
+
+    /**
+     * Returns a new solver of the given class, with a new analysis of the
+     * given class registered.
+     */
+    private static Solver newSolver(Class<? extends Solver> solverClass, Class<? extends Analysis> analysisClass) {
+        Solver solver = newInstance(solverClass);
+        solver.registerAnalysis(newInstance(analysisClass));
+        return solver;
+    }
+
+    private static <T> T newInstance(Class<T> c) {
+        try {
+            return c.getDeclaredConstructor().newInstance();
+        } catch (Exception ex) {
+            throw new RuntimeException("Could not instantiate " + c.getName(), ex);
         }
     }
 
@@ -141,6 +177,83 @@ public abstract class Flow {
         void processQuad(Quad q);
     }
 
+    /**
+     * Optional extension of Analysis, which allows a solver to run the
+     * transfer function of a quad without going through the IN/OUT of
+     * that quad.  BlockSolver uses it to keep values only at the
+     * boundaries of basic blocks during the fixpoint.
+     */
+    public interface BlockAnalysis extends Analysis {
+        /**
+         * Applies the transfer function of the given quad to value in place,
+         * i.e. turns its IN into its OUT for a forward analysis, and its OUT
+         * into its IN for a backward analysis.
+         **/
+        void transfer(Quad q, DataflowObject value);
+    }
+
+    /**
+     * Optional extension of DataflowObject for values which can be
+     * updated in place and tell whether they changed.
+     */
+    public interface MeetObject extends DataflowObject {
+        /**
+         * Same as meetWith, but returns whether this object changed.
+         **/
+        boolean meetChanged(DataflowObject o);
+    }
+
+    /**
+     * Optional extension of DataflowObject for lattices with infinite
+     * descending chains, e.g. the Ranges of submit.BoundsCheckOpt. WorklistSolver,
+     * FlowSolver, OrderedSolver and WtoSolver widen the values of loop heads, so
+     * that they reach a fixpoint, and narrow them again afterwards, see Widening.
+     * The other solvers don't, and throw an IllegalArgumentException on them.
+     */
+    public interface WideningObject extends DataflowObject {
+        /**
+         * Replaces this, the old value of a loop head, with a value below
+         * both this and o, its newly met value, such that repeated widening
+         * only goes down finitely often. If this is Top the result is o.
+         **/
+        void widenWith(DataflowObject o);
+
+        /**
+         * Replaces this, a value of a loop head found by widening, with a
+         * value between o, its recomputed value, and this, such that repeated
+         * narrowing only goes up finitely often.
+         **/
+        void narrowWith(DataflowObject o);
+    }
+
+    /**
+     * Optional extension of Analysis, which lets a solver work on the
+     * analysis' own IN/OUT objects instead of copies, so that no
+     * DataflowObject has to be allocated while solving.  InPlaceSolver
+     * uses it, and wraps other analyses in an InPlaceAdapter.
+     * <p>
+     * The IN and OUT of every quad must start out as Top, then the
+     * solver only ever lowers them with meetChanged and update.
+     */
+    public interface InPlaceAnalysis extends Analysis {
+        /**
+         * Returns the IN value of a quad itself, not a copy.
+         **/
+        MeetObject inRef(Quad q);
+
+        /**
+         * Returns the OUT value of a quad itself, not a copy.
+         **/
+        MeetObject outRef(Quad q);
+
+        /**
+         * Recomputes the OUT value of the quad from its IN value for a
+         * forward analysis (IN from OUT for a backward analysis), and
+         * returns whether it changed.
+         **/
+        boolean update(Quad q);
+    }
+
     public interface Solver extends ControlFlowGraphVisitor {
         void visitCFG(ControlFlowGraph cfg);
 
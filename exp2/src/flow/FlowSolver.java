@@ -9,10 +9,12 @@ import java.util.*;
 
 /**
  * Skeleton class for implementing the Flow.Solver interface.
+ * Values which are Flow.WideningObjects are widened at loop heads, see Widening.
  */
 public class FlowSolver implements Flow.Solver {
 
   private Flow.Analysis analysis;
+  private SolverMetrics metrics;
 
   /**
    * Sets the analysis.  When visitCFG is called, it will
@@ -32,89 +34,70 @@ public class FlowSolver implements Flow.Solver {
    * @param cfg The control flow graph to analyze.
    */
   public void visitCFG(ControlFlowGraph cfg) {
+    metrics = SolverMetrics.begin(this, analysis, cfg);
     // this needs to come first.
     analysis.preprocess(cfg);
 
-    Quad entryQuad = null;
-    HashSet<Quad> exitQuads = new HashSet<Quad>();
-    for (QuadIterator it = new QuadIterator(cfg); it.hasNext(); ) {
-      Quad q = it.next();
-      if (entryQuad == null) {
-        entryQuad = q;
-      }
-      if (it.successors1().contains(null)) {
-        exitQuads.add(q);
-      }
-    }
+    CfgIndex index = CfgIndex.of(cfg);
+    int n = index.size();
+    Widening widening = Widening.of(analysis, metrics, index);
 
     if (analysis.isForward()) {
       boolean changed;
       DataflowObject entry = analysis.getEntry();
       do {
         changed = false;
-        for (QuadIterator it = new QuadIterator(cfg); it.hasNext(); ) {
-          Quad q = it.next();
-          DataflowObject newIn = meetOut(it.predecessors1(), entry);
+        ++metrics.rounds;
+        for (int i = 0; i < n; ++i) {
+          Quad q = index.quad(i);
+          DataflowObject newIn = Meets.preds(analysis, metrics, index, i, entry);
+          if (widening != null) {
+            newIn = widening.widen(analysis, metrics, i, analysis.getIn(q), newIn);
+          }
           analysis.setIn(q, newIn);
           DataflowObject oldOut = analysis.getOut(q);
           analysis.processQuad(q);
+          ++metrics.transfers;
           changed |= !oldOut.equals(analysis.getOut(q));
         }
       } while (changed);
+      if (widening != null) {
+        metrics.rounds += widening.narrow(analysis, metrics, index, entry);
+      }
       // the value of exit node doesn't affect the forward dataflow, so it doesn't have to be in the loop
       // it is okay to set it' value after the loop finishes
-      DataflowObject newIn = meetOut(exitQuads, analysis.getEntry());
+      DataflowObject newIn = Meets.exits(analysis, metrics, index);
       analysis.setExit(newIn);
     } else {
       boolean changed;
       DataflowObject exit = analysis.getExit();
       do {
         changed = false;
-        for (QuadIterator it = new QuadIterator(cfg); it.hasNext(); ) {
-          Quad q = it.next();
-          DataflowObject newOut = meetIn(it.successors1(), exit);
+        ++metrics.rounds;
+        for (int i = 0; i < n; ++i) {
+          Quad q = index.quad(i);
+          DataflowObject newOut = Meets.succs(analysis, metrics, index, i, exit);
+          if (widening != null) {
+            newOut = widening.widen(analysis, metrics, i, analysis.getOut(q), newOut);
+          }
           analysis.setOut(q, newOut);
           DataflowObject oldIn = analysis.getIn(q);
           analysis.processQuad(q);
+          ++metrics.transfers;
           changed |= !oldIn.equals(analysis.getIn(q));
         }
       } while (changed);
-      DataflowObject newOut = analysis.getIn(entryQuad);
-      analysis.setEntry(newOut);
+      if (widening != null) {
+        metrics.rounds += widening.narrow(analysis, metrics, index, exit);
+      }
+      if (n > 0) {
+        DataflowObject newOut = analysis.getIn(index.quad(0));
+        analysis.setEntry(newOut);
+      }
     }
 
     // this needs to come last.
     analysis.postprocess(cfg);
-  }
-
-  // `entry` is the fallback value when a predecessor is null
-  private DataflowObject meetOut(Collection<Quad> pred, DataflowObject entry) {
-    DataflowObject ret = analysis.newTempVar();
-    boolean first = true;
-    for (Quad s : pred) {
-      DataflowObject rhs = s == null ? entry : analysis.getOut(s);
-      if (first) {
-        ret.copy(rhs);
-        first = false;
-      } else {
-        ret.meetWith(rhs);
-      }
-    }
-    return ret;
-  }
-
-  private DataflowObject meetIn(Collection<Quad> succ, DataflowObject exit) {
-    DataflowObject ret = analysis.newTempVar();
-    boolean first = true;
-    for (Quad s : succ) {
-      DataflowObject rhs = s == null ? exit : analysis.getIn(s);
-      if (first) {
-        ret.copy(rhs);
-        first = false;
-      } else {
-        ret.meetWith(rhs);
-      }
-    }
-    return ret;
+    metrics.end();
   }
 }
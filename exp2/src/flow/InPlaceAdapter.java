@@ -0,0 +1,181 @@
+package flow;
+
+import flow.Flow.DataflowObject;
+import joeq.Compiler.Quad.ControlFlowGraph;
+import joeq.Compiler.Quad.Quad;
+import joeq.Compiler.Quad.QuadIterator;
+
+/**
+ * Makes any Flow.Analysis usable as a Flow.InPlaceAnalysis.
+ * <p>
+ * The adapter keeps its own copy of every IN/OUT value, wrapped so that
+ * meetChanged can be answered with the plain DataflowObject methods, and
+ * passes the values to the analysis through setIn/setOut around each
+ * processQuad. This costs the copies and equals calls the analysis needs
+ * anyway, so it is no faster than a plain solver, only compatible. Its
+ * temps and copies are counted in the metrics of the solver run it is
+ * created for.
+ */
+public class InPlaceAdapter implements Flow.InPlaceAnalysis {
+  private Flow.Analysis analysis;
+  private SolverMetrics metrics;
+  private Value[] in, out;
+  // holds the old value during meetChanged
+  private DataflowObject scratch;
+
+  public InPlaceAdapter(Flow.Analysis analysis, SolverMetrics metrics) {
+    this.analysis = analysis;
+    this.metrics = metrics;
+  }
+
+  private class Value implements Flow.MeetObject {
+    DataflowObject v;
+
+    Value(DataflowObject v) {
+      this.v = v;
+    }
+
+    public boolean meetChanged(DataflowObject o) {
+      scratch.copy(v);
+      ++metrics.copies;
+      v.meetWith(unwrap(o));
+      return !v.equals(scratch);
+    }
+
+    public void setToTop() {
+      v.setToTop();
+    }
+
+    public void setToBottom() {
+      v.setToBottom();
+    }
+
+    public void meetWith(DataflowObject o) {
+      v.meetWith(unwrap(o));
+    }
+
+    public void copy(DataflowObject o) {
+      v.copy(unwrap(o));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Value ? v.equals(((Value) o).v) : v.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+      return v.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return v.toString();
+    }
+  }
+
+  private static DataflowObject unwrap(DataflowObject o) {
+    return o instanceof Value ? ((Value) o).v : o;
+  }
+
+  public void preprocess(ControlFlowGraph cfg) {
+    analysis.preprocess(cfg);
+    int max = 0;
+    for (QuadIterator it = new QuadIterator(cfg); it.hasNext(); ) {
+      max = Math.max(max, it.next().getID());
+    }
+    in = new Value[max + 1];
+    out = new Value[max + 1];
+    for (QuadIterator it = new QuadIterator(cfg); it.hasNext(); ) {
+      Quad q = it.next();
+      DataflowObject i = analysis.newTempVar(), o = analysis.newTempVar();
+      i.copy(analysis.getIn(q));
+      o.copy(analysis.getOut(q));
+      metrics.temps += 2;
+      metrics.copies += 2;
+      in[q.getID()] = new Value(i);
+      out[q.getID()] = new Value(o);
+    }
+    scratch = analysis.newTempVar();
+    ++metrics.temps;
+  }
+
+  public void postprocess(ControlFlowGraph cfg) {
+    analysis.postprocess(cfg);
+  }
+
+  public boolean isForward() {
+    return analysis.isForward();
+  }
+
+  public DataflowObject getEntry() {
+    return analysis.getEntry();
+  }
+
+  public void setEntry(DataflowObject value) {
+    analysis.setEntry(unwrap(value));
+  }
+
+  public DataflowObject getExit() {
+    return analysis.getExit();
+  }
+
+  public void setExit(DataflowObject value) {
+    analysis.setExit(unwrap(value));
+  }
+
+  public DataflowObject getIn(Quad q) {
+    return in[q.getID()].v;
+  }
+
+  public DataflowObject getOut(Quad q) {
+    return out[q.getID()].v;
+  }
+
+  public void setIn(Quad q, DataflowObject value) {
+    in[q.getID()].v.copy(unwrap(value));
+  }
+
+  public void setOut(Quad q, DataflowObject value) {
+    out[q.getID()].v.copy(unwrap(value));
+  }
+
+  public DataflowObject newTempVar() {
+    return analysis.newTempVar();
+  }
+
+  public void processQuad(Quad q) {
+    update(q);
+  }
+
+  public Flow.MeetObject inRef(Quad q) {
+    return in[q.getID()];
+  }
+
+  public Flow.MeetObject outRef(Quad q) {
+    return out[q.getID()];
+  }
+
+  public boolean update(Quad q) {
+    int id = q.getID();
+    DataflowObject result;
+    Value target;
+    if (analysis.isForward()) {
+      analysis.setIn(q, in[id].v);
+      analysis.processQuad(q);
+      result = analysis.getOut(q);
+      target = out[id];
+    } else {
+      analysis.setOut(q, out[id].v);
+      analysis.processQuad(q);
+      result = analysis.getIn(q);
+      target = in[id];
+    }
+    if (result.equals(target.v)) {
+      return false;
+    }
+    target.v.copy(result);
+    ++metrics.copies;
+    return true;
+  }
+}
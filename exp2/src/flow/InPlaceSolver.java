@@ -0,0 +1,88 @@
+package flow;
+
+import joeq.Compiler.Quad.*;
+import flow.Flow.DataflowObject;
+
+import java.util.*;
+
+/**
+ * Worklist implementation of the Flow.Solver interface which updates the
+ * IN/OUT values of the analysis in place.
+ * <p>
+ * When a quad is processed, the values of its predecessors (forward) or
+ * successors (backward) are met directly into its IN (OUT), and the
+ * analysis recomputes its OUT (IN) and reports whether that changed, so
+ * there is neither a temporary object per meet nor a separate equals pass.
+ * This relies on the values only going down from Top, see
+ * Flow.InPlaceAnalysis. Analyses which don't implement it are run through
+ * an InPlaceAdapter. Narrowing would make values go up again, so analyses
+ * whose values are Flow.WideningObjects are rejected with an
+ * IllegalArgumentException.
+ */
+public class InPlaceSolver implements Flow.Solver {
+
+  private Flow.Analysis registered;
+  private Flow.InPlaceAnalysis analysis;
+  private SolverMetrics metrics;
+
+  public void registerAnalysis(Flow.Analysis analyzer) {
+    this.registered = analyzer;
+  }
+
+  public void visitCFG(ControlFlowGraph cfg) {
+    metrics = SolverMetrics.begin(this, registered, cfg);
+    // a new adapter per run, so that it counts into this run's metrics
+    analysis = registered instanceof Flow.InPlaceAnalysis
+        ? (Flow.InPlaceAnalysis) registered : new InPlaceAdapter(registered, metrics);
+    // this needs to come first.
+    analysis.preprocess(cfg);
+    Widening.reject(this, registered, metrics);
+
+    CfgIndex index = CfgIndex.of(cfg);
+    int n = index.size();
+
+    boolean forward = analysis.isForward();
+    IntQueue worklist = new IntQueue(n);
+    boolean[] queued = new boolean[n];
+    int[] visits = new int[n];
+    for (int i = 0; i < n; ++i) {
+      worklist.add(forward ? i : n - 1 - i);
+      queued[i] = true;
+    }
+
+    DataflowObject boundary = forward ? analysis.getEntry() : analysis.getExit();
+    // the neighbours values flow from, and the ones they flow to
+    int[] from = forward ? index.preds : index.succs, to = forward ? index.succs : index.preds;
+    int[] fromStart = forward ? index.predStart : index.succStart, toStart = forward ? index.succStart : index.predStart;
+    while (!worklist.isEmpty()) {
+      int i = worklist.remove();
+      queued[i] = false;
+      metrics.visited(++visits[i]);
+      Quad q = index.quad(i);
+      Flow.MeetObject val = forward ? analysis.inRef(q) : analysis.outRef(q);
+      for (int k = fromStart[i]; k < fromStart[i + 1]; ++k) {
+        int p = from[k];
+        if (p == CfgIndex.ENTRY_EXIT) {
+          val.meetChanged(boundary);
+        } else {
+          val.meetChanged(forward ? analysis.outRef(index.quad(p)) : analysis.inRef(index.quad(p)));
+        }
+        ++metrics.meets;
+      }
+      ++metrics.transfers;
+      if (analysis.update(q)) {
+        WorklistSolver.enqueue(worklist, queued, to, toStart[i], toStart[i + 1]);
+      }
+    }
+
+    if (forward) {
+      analysis.setExit(Meets.exits(analysis, metrics, index));
+    } else if (n > 0) {
+      analysis.setEntry(analysis.getIn(index.quad(0)));
+    }
+
+    // this needs to come last.
+    analysis.postprocess(cfg);
+    metrics.end();
+  }
+}
@@ -0,0 +1,31 @@
+package flow;
+
+/**
+ * A FIFO queue of ints in a circular array, used as worklist by the solvers.
+ * It never holds more than `capacity` elements, since every element is kept
+ * at most once through a `queued` flag.
+ */
+final class IntQueue {
+  private final int[] items;
+  private int head, size;
+
+  IntQueue(int capacity) {
+    items = new int[Math.max(capacity, 1)];
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  void add(int x) {
+    items[(head + size) % items.length] = x;
+    ++size;
+  }
+
+  int remove() {
+    int x = items[head];
+    head = (head + 1) % items.length;
+    --size;
+    return x;
+  }
+}
@@ -6,11 +6,11 @@ import joeq.Compiler.Quad.Quad;
 import joeq.Compiler.Quad.QuadIterator;
 import joeq.Compiler.Quad.QuadVisitor;
 
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.BitSet;
 
-public class Liveness implements Flow.Analysis {
+public class Liveness implements Flow.BlockAnalysis, Flow.InPlaceAnalysis {
 
+    private RegisterTable table;
     private VarSet[] in, out;
     private VarSet entry, exit;
     private TransferFunction transferfn = new TransferFunction();
@@ -27,33 +27,16 @@ public class Liveness implements Flow.Analysis {
         max += 1;
         in = new VarSet[max];
         out = new VarSet[max];
-        qit = new QuadIterator(cfg);
 
-        Set<String> s = new TreeSet<String>();
-        VarSet.universalSet = s;
+        /* Arguments are always there, the table interns them as well. */
+        table = new RegisterTable(cfg);
 
-        /* Arguments are always there. */
-        int numargs = cfg.getMethod().getParamTypes().length;
-        for (int i = 0; i < numargs; i++) {
-            s.add("R" + i);
-        }
-
-        while (qit.hasNext()) {
-            Quad q = qit.next();
-            for (RegisterOperand def : q.getDefinedRegisters()) {
-                s.add(def.getRegister().toString());
-            }
-            for (RegisterOperand use : q.getUsedRegisters()) {
-                s.add(use.getRegister().toString());
-            }
-        }
-
-        entry = new VarSet();
-        exit = new VarSet();
-        transferfn.val = new VarSet();
+        entry = new VarSet(table);
+        exit = new VarSet(table);
+        transferfn.val = new VarSet(table);
         for (int i = 0; i < in.length; i++) {
-            in[i] = new VarSet();
-            out[i] = new VarSet();
+            in[i] = new VarSet(table);
+            out[i] = new VarSet(table);
         }
 
         System.out.println("Initialization completed.");
@@ -116,7 +99,7 @@ public class Liveness implements Flow.Analysis {
     }
 
     public Flow.DataflowObject newTempVar() {
-        return new VarSet();
+        return new VarSet(table);
     }
 
     /* Actually perform the transfer operation on the relevant
@@ -128,30 +111,68 @@ public class Liveness implements Flow.Analysis {
         in[q.getID()].copy(transferfn.val);
     }
 
-    public static class VarSet implements Flow.DataflowObject {
-        public static Set<String> universalSet;
-        private Set<String> set;
+    public Flow.MeetObject inRef(Quad q) {
+        return in[q.getID()];
+    }
+
+    public Flow.MeetObject outRef(Quad q) {
+        return out[q.getID()];
+    }
 
-        public VarSet() {
-            set = new TreeSet<String>();
+    public boolean update(Quad q) {
+        int id = q.getID();
+        transferfn.val.copy(out[id]);
+        transferfn.visitQuad(q);
+        if (transferfn.val.equals(in[id])) {
+            return false;
+        }
+        // the old IN becomes the scratch value of the transfer function
+        VarSet old = in[id];
+        in[id] = transferfn.val;
+        transferfn.val = old;
+        return true;
+    }
+
+    public void transfer(Quad q, Flow.DataflowObject value) {
+        VarSet val = transferfn.val;
+        transferfn.val = (VarSet) value;
+        transferfn.visitQuad(q);
+        transferfn.val = val;
+    }
+
+    public static class VarSet implements Flow.MeetObject {
+        private RegisterTable table;
+        private BitSet set;
+
+        public VarSet(RegisterTable table) {
+            this.table = table;
+            set = new BitSet(table.size());
         }
 
         public void setToTop() {
-            set = new TreeSet<String>();
+            set.clear();
         }
 
         public void setToBottom() {
-            set = new TreeSet<String>(universalSet);
+            set.set(0, table.size());
         }
 
         public void meetWith(Flow.DataflowObject o) {
             VarSet a = (VarSet) o;
-            set.addAll(a.set);
+            set.or(a.set);
+        }
+
+        public boolean meetChanged(Flow.DataflowObject o) {
+            // a union only changes the set by growing it
+            int before = set.cardinality();
+            set.or(((VarSet) o).set);
+            return set.cardinality() != before;
         }
 
         public void copy(Flow.DataflowObject o) {
             VarSet a = (VarSet) o;
-            set = new TreeSet<String>(a.set);
+            set.clear();
+            set.or(a.set);
         }
 
         @Override
@@ -170,15 +191,15 @@ public class Liveness implements Flow.Analysis {
 
         @Override
         public String toString() {
-            return set.toString();
+            return table.toString(set);
         }
 
-        public void genVar(String v) {
-            set.add(v);
+        public void genVar(int v) {
+            set.set(v);
         }
 
-        public void killVar(String v) {
-            set.remove(v);
+        public void killVar(int v) {
+            set.clear(v);
         }
     }
 
@@ -189,10 +210,10 @@ public class Liveness implements Flow.Analysis {
         @Override
         public void visitQuad(Quad q) {
             for (RegisterOperand def : q.getDefinedRegisters()) {
-                val.killVar(def.getRegister().toString());
+                val.killVar(val.table.indexOf(def.getRegister()));
             }
             for (RegisterOperand use : q.getUsedRegisters()) {
-                val.genVar(use.getRegister().toString());
+                val.genVar(val.table.indexOf(use.getRegister()));
             }
         }
     }
@@ -0,0 +1,62 @@
+package flow;
+
+import flow.Flow.DataflowObject;
+
+/**
+ * The meet over the neighbours of a quad, shared by the solvers.
+ */
+final class Meets {
+  private Meets() {
+  }
+
+  /**
+   * Returns a new temp var holding the meet of the OUT (if out is true) or
+   * IN values of the quads with ordinals adj[from] .. adj[to - 1], where
+   * CfgIndex.ENTRY_EXIT stands for `boundary`.
+   */
+  static DataflowObject meet(Flow.Analysis analysis, SolverMetrics metrics, CfgIndex index,
+                             int[] adj, int from, int to, boolean out, DataflowObject boundary) {
+    DataflowObject ret = analysis.newTempVar();
+    ++metrics.temps;
+    for (int k = from; k < to; ++k) {
+      DataflowObject rhs;
+      if (adj[k] == CfgIndex.ENTRY_EXIT) {
+        rhs = boundary;
+      } else {
+        rhs = out ? analysis.getOut(index.quad(adj[k])) : analysis.getIn(index.quad(adj[k]));
+      }
+      if (k == from) {
+        ret.copy(rhs);
+        ++metrics.copies;
+      } else {
+        ret.meetWith(rhs);
+        ++metrics.meets;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * The meet of the OUT values of the predecessors of quad i.
+   */
+  static DataflowObject preds(Flow.Analysis analysis, SolverMetrics metrics, CfgIndex index, int i,
+                              DataflowObject entry) {
+    return meet(analysis, metrics, index, index.preds, index.predStart[i], index.predStart[i + 1], true, entry);
+  }
+
+  /**
+   * The meet of the IN values of the successors of quad i.
+   */
+  static DataflowObject succs(Flow.Analysis analysis, SolverMetrics metrics, CfgIndex index, int i,
+                              DataflowObject exit) {
+    return meet(analysis, metrics, index, index.succs, index.succStart[i], index.succStart[i + 1], false, exit);
+  }
+
+  /**
+   * The meet of the OUT values of the quads followed by the exit.
+   */
+  static DataflowObject exits(Flow.Analysis analysis, SolverMetrics metrics, CfgIndex index) {
+    int[] exits = index.exits();
+    return meet(analysis, metrics, index, exits, 0, exits.length, true, null);
+  }
+}
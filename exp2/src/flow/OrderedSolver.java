@@ -0,0 +1,95 @@
+package flow;
+
+import joeq.Compiler.Quad.*;
+import flow.Flow.DataflowObject;
+
+import java.util.*;
+
+/**
+ * Round-robin implementation of the Flow.Solver interface which visits the quads
+ * in reverse postorder of the basic blocks for forward analyses, and in postorder
+ * (with the quads of each block visited backward) for backward analyses.
+ * <p>
+ * In this order every value flows along all forward edges within one round,
+ * so on a reducible CFG the number of rounds is bounded by loop nesting depth + 2.
+ * Values which are Flow.WideningObjects are widened at loop heads, see Widening,
+ * and the narrowing sweeps count as rounds.
+ * The number of rounds of each method is reported as SolverMetrics.rounds.
+ */
+public class OrderedSolver implements Flow.Solver {
+
+  private Flow.Analysis analysis;
+  private SolverMetrics metrics;
+
+  public void registerAnalysis(Flow.Analysis analyzer) {
+    this.analysis = analyzer;
+  }
+
+  public void visitCFG(ControlFlowGraph cfg) {
+    metrics = SolverMetrics.begin(this, analysis, cfg);
+    // this needs to come first.
+    analysis.preprocess(cfg);
+
+    // the ordinals of the index are in reverse postorder already
+    CfgIndex index = CfgIndex.of(cfg);
+    int n = index.size();
+    Widening widening = Widening.of(analysis, metrics, index);
+
+    int rounds = 0;
+    if (analysis.isForward()) {
+      boolean changed;
+      DataflowObject entry = analysis.getEntry();
+      do {
+        changed = false;
+        ++rounds;
+        for (int i = 0; i < n; ++i) {
+          Quad q = index.quad(i);
+          DataflowObject newIn = Meets.preds(analysis, metrics, index, i, entry);
+          if (widening != null) {
+            newIn = widening.widen(analysis, metrics, i, analysis.getIn(q), newIn);
+          }
+          analysis.setIn(q, newIn);
+          DataflowObject oldOut = analysis.getOut(q);
+          analysis.processQuad(q);
+          ++metrics.transfers;
+          changed |= !oldOut.equals(analysis.getOut(q));
+        }
+      } while (changed);
+      if (widening != null) {
+        rounds += widening.narrow(analysis, metrics, index, entry);
+      }
+      analysis.setExit(Meets.exits(analysis, metrics, index));
+    } else {
+      boolean changed;
+      DataflowObject exit = analysis.getExit();
+      do {
+        changed = false;
+        ++rounds;
+        for (int i = n - 1; i >= 0; --i) {
+          Quad q = index.quad(i);
+          DataflowObject newOut = Meets.succs(analysis, metrics, index, i, exit);
+          if (widening != null) {
+            newOut = widening.widen(analysis, metrics, i, analysis.getOut(q), newOut);
+          }
+          analysis.setOut(q, newOut);
+          DataflowObject oldIn = analysis.getIn(q);
+          analysis.processQuad(q);
+          ++metrics.transfers;
+          changed |= !oldIn.equals(analysis.getIn(q));
+        }
+      } while (changed);
+      if (widening != null) {
+        rounds += widening.narrow(analysis, metrics, index, exit);
+      }
+      if (n > 0) {
+        // the entry quad is visited last in postorder
+        analysis.setEntry(analysis.getIn(index.quad(0)));
+      }
+    }
+    metrics.rounds = rounds;
+
+    // this needs to come last.
+    analysis.postprocess(cfg);
+    metrics.end();
+  }
+}
@@ -0,0 +1,183 @@
+package flow;
+
+import joeq.Class.jq_Class;
+import joeq.Compiler.Quad.ControlFlowGraph;
+import joeq.Compiler.Quad.ControlFlowGraphVisitor;
+import joeq.Main.Helper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs a ControlFlowGraphVisitor over every method of a list of classes on a
+ * pool of worker threads.
+ * <p>
+ * The cfgs are built on the calling thread first, in the same order as
+ * Helper.runPass visits them, since building them goes through joeq's global
+ * state. Each worker then gets its own visitor from the Factory, so analyses
+ * which keep per-cfg state in fields can be used as they are. Whatever a
+ * method prints to System.out/System.err is buffered and printed once all of
+ * them are done, in method order, so the output is the same as a sequential
+ * run.
+ * <p>
+ * The number of threads defaults to the flow.threads system property
+ * (e.g. -Dflow.threads=32), 1 meaning a plain sequential run.
+ */
+public class ParallelRunner {
+  public interface Factory {
+    ControlFlowGraphVisitor create();
+  }
+
+  private final int threads;
+
+  public ParallelRunner(int threads) {
+    this.threads = threads;
+  }
+
+  public ParallelRunner() {
+    this(defaultThreads());
+  }
+
+  public static int defaultThreads() {
+    return Math.max(1, Integer.getInteger("flow.threads", 1));
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Visits every method of every class with a visitor from factory.
+   * headers, if not null, holds one line per class which is printed
+   * before the output of its methods, like "Now analyzing X" in Flow.main.
+   */
+  public void run(List<jq_Class> classes, List<String> headers, final Factory factory) {
+    if (threads <= 1) {
+      ControlFlowGraphVisitor visitor = factory.create();
+      for (int i = 0; i < classes.size(); ++i) {
+        if (headers != null) {
+          System.out.println(headers.get(i));
+        }
+        Helper.runPass(classes.get(i), visitor);
+      }
+      return;
+    }
+
+    final ArrayList<List<ControlFlowGraph>> cfgs = new ArrayList<List<ControlFlowGraph>>();
+    for (jq_Class clazz : classes) {
+      final ArrayList<ControlFlowGraph> list = new ArrayList<ControlFlowGraph>();
+      Helper.runPass(clazz, new ControlFlowGraphVisitor() {
+        public void visitCFG(ControlFlowGraph cfg) {
+          list.add(cfg);
+        }
+      });
+      cfgs.add(list);
+    }
+
+    final ThreadLocal<ControlFlowGraphVisitor> visitors = new ThreadLocal<ControlFlowGraphVisitor>();
+    final RoutedStream out = new RoutedStream(System.out), err = new RoutedStream(System.err);
+    PrintStream oldOut = System.out, oldErr = System.err;
+    System.setOut(new PrintStream(out, true));
+    System.setErr(new PrintStream(err, true));
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      ArrayList<List<Future<String[]>>> results = new ArrayList<List<Future<String[]>>>();
+      for (List<ControlFlowGraph> list : cfgs) {
+        ArrayList<Future<String[]>> futures = new ArrayList<Future<String[]>>();
+        for (final ControlFlowGraph cfg : list) {
+          futures.add(pool.submit(new Callable<String[]>() {
+            public String[] call() {
+              ControlFlowGraphVisitor visitor = visitors.get();
+              if (visitor == null) {
+                visitor = factory.create();
+                visitors.set(visitor);
+              }
+              String[] printed;
+              out.begin();
+              err.begin();
+              try {
+                visitor.visitCFG(cfg);
+              } finally {
+                // detach the buffers even on failure, the worker is reused
+                System.out.flush();
+                System.err.flush();
+                printed = new String[]{out.end(), err.end()};
+              }
+              return printed;
+            }
+          }));
+        }
+        results.add(futures);
+      }
+
+      for (int i = 0; i < results.size(); ++i) {
+        if (headers != null) {
+          oldOut.println(headers.get(i));
+        }
+        for (Future<String[]> f : results.get(i)) {
+          String[] printed = f.get();
+          oldOut.print(printed[0]);
+          oldErr.print(printed[1]);
+        }
+      }
+      oldOut.flush();
+      oldErr.flush();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+      System.setOut(oldOut);
+      System.setErr(oldErr);
+    }
+  }
+
+  /**
+   * An OutputStream which writes into a per-thread buffer between begin()
+   * and end(), and to the original stream otherwise.
+   */
+  private static class RoutedStream extends OutputStream {
+    private final OutputStream fallback;
+    private final ThreadLocal<ByteArrayOutputStream> buffer = new ThreadLocal<ByteArrayOutputStream>();
+
+    RoutedStream(OutputStream fallback) {
+      this.fallback = fallback;
+    }
+
+    void begin() {
+      buffer.set(new ByteArrayOutputStream());
+    }
+
+    String end() {
+      String ret = buffer.get().toString();
+      buffer.remove();
+      return ret;
+    }
+
+    private OutputStream target() {
+      ByteArrayOutputStream b = buffer.get();
+      return b != null ? b : fallback;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      target().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      target().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      target().flush();
+    }
+  }
+}
@@ -8,23 +8,24 @@ import joeq.Compiler.Quad.Quad;
 import joeq.Compiler.Quad.QuadIterator;
 import joeq.Compiler.Quad.QuadVisitor;
 
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * Skeleton class for implementing a reaching definition analysis
  * using the Flow.Analysis interface.
  */
-public class ReachingDefs implements Flow.Analysis {
+public class ReachingDefs implements Flow.BlockAnalysis, Flow.InPlaceAnalysis {
 
     /**
-     * Class for the dataflow objects in the ReachingDefs analysis.
-     * You are free to change this class or move it to another file.
+     * Every quad defining a register gets a dense index, assigned in
+     * ascending order of quad ids. defs[index] is the id of that quad.
+     * gen[ID] and kill[ID] are the bit masks of the quad with identifier ID,
+     * kill masks are shared by all quads defining the same register.
      */
-    public static Set<Integer> universalSet = new TreeSet<Integer>();
-    private static HashMap<String, TreeSet<Integer>> mymap;
+    private int[] defs;
+    private int words;
+    private long[][] gen, kill;
     /**
      * Dataflow objects for the interior and entry/exit points
      * of the CFG. in[ID] and out[ID] store the entry and exit
@@ -45,7 +46,6 @@ public class ReachingDefs implements Flow.Analysis {
     public void preprocess(ControlFlowGraph cfg) {
         // this line must come first.
         System.out.println("Method: " + cfg.getMethod().getName().toString());
-        mymap = new HashMap<String, TreeSet<Integer>>();
 
         // get the amount of space we need to allocate for the in/out arrays.
         QuadIterator qit = new QuadIterator(cfg);
@@ -57,31 +57,71 @@ public class ReachingDefs implements Flow.Analysis {
         }
         max += 1;
 
-        // allocate the in and out arrays.
-        in = new MyDataflowObject[max];
-        out = new MyDataflowObject[max];
-
-        // initialize the contents of in and out.
+        // number the definitions in ascending order of quad ids.
+        Quad[] quads = new Quad[max];
         qit = new QuadIterator(cfg);
         while (qit.hasNext()) {
-            int id = qit.next().getID();
-            in[id] = new MyDataflowObject();
-            out[id] = new MyDataflowObject();
+            Quad q = qit.next();
+            quads[q.getID()] = q;
         }
+        int[] index = new int[max];
+        int n = 0;
+        for (Quad q : quads) {
+            if (q != null && q.getDefinedRegisters().size() > 0) {
+                index[q.getID()] = n++;
+            }
+        }
+        defs = new int[n];
+        words = (n + 63) / 64;
 
-        qit = new QuadIterator(cfg);
-        while (qit.hasNext()) {
-            Quad q = qit.next();
-            int id = q.getID();
-            universalSet.add(id);
+        // precompute gen and kill of every quad.
+        HashMap<String, long[]> defsOfReg = new HashMap<String, long[]>();
+        for (Quad q : quads) {
+            if (q == null) continue;
             for (RegisterOperand def : q.getDefinedRegisters()) {
                 String key = def.getRegister().toString();
-                if (mymap.get(key) == null) mymap.put(key, new TreeSet<Integer>());
-                TreeSet<Integer> myset = mymap.get(key);
-                myset.add(id);
-                mymap.put(key, myset);
+                if (defsOfReg.get(key) == null) defsOfReg.put(key, new long[words]);
+                long[] mask = defsOfReg.get(key);
+                int i = index[q.getID()];
+                mask[i >>> 6] |= 1L << i;
             }
         }
+        long[] none = new long[words];
+        gen = new long[max][];
+        kill = new long[max][];
+        for (Quad q : quads) {
+            if (q == null) continue;
+            int id = q.getID();
+            gen[id] = none;
+            if (q.getDefinedRegisters().size() > 0) {
+                defs[index[id]] = id;
+                gen[id] = new long[words];
+                gen[id][index[id] >>> 6] |= 1L << index[id];
+            }
+            // a quad defining several registers kills the definitions of all of them
+            for (RegisterOperand def : q.getDefinedRegisters()) {
+                long[] mask = defsOfReg.get(def.getRegister().toString());
+                if (kill[id] == null) {
+                    kill[id] = mask;
+                } else {
+                    long[] both = kill[id].clone();
+                    for (int w = 0; w < words; ++w) both[w] |= mask[w];
+                    kill[id] = both;
+                }
+            }
+            if (kill[id] == null) kill[id] = none;
+        }
+
+        // allocate the in and out arrays.
+        in = new MyDataflowObject[max];
+        out = new MyDataflowObject[max];
+
+        // initialize the contents of in and out.
+        for (Quad q : quads) {
+            if (q == null) continue;
+            in[q.getID()] = new MyDataflowObject();
+            out[q.getID()] = new MyDataflowObject();
+        }
         // initialize the entry and exit points.
         transferfn.val = new MyDataflowObject();
         entry = new MyDataflowObject();
@@ -167,42 +207,76 @@ public class ReachingDefs implements Flow.Analysis {
         out[q.getID()].copy(transferfn.val);
     }
 
+    public Flow.MeetObject inRef(Quad q) {
+        return in[q.getID()];
+    }
+
+    public Flow.MeetObject outRef(Quad q) {
+        return out[q.getID()];
+    }
+
+    /**
+     * Same as the transfer function, but computes OUT word by word
+     * right into the OUT of q, noting whether any word changed.
+     */
+    public boolean update(Quad q) {
+        int id = q.getID();
+        long[] g = gen[id], k = kill[id], i = in[id].set, o = out[id].set;
+        boolean changed = false;
+        for (int w = 0; w < words; ++w) {
+            long v = g[w] | (i[w] & ~k[w]);
+            if (v != o[w]) {
+                o[w] = v;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    public void transfer(Quad q, Flow.DataflowObject value) {
+        MyDataflowObject val = transferfn.val;
+        transferfn.val = (MyDataflowObject) value;
+        transferfn.visitQuad(q);
+        transferfn.val = val;
+    }
+
     /* The QuadVisitor that actually does the computation */
-    public static class TransferFunction extends QuadVisitor.EmptyVisitor {
+    public class TransferFunction extends QuadVisitor.EmptyVisitor {
         MyDataflowObject val;
 
+        /**
+         * out = gen | (in & ~kill)
+         */
         @Override
         public void visitQuad(Quad q) {
-            for (RegisterOperand def : q.getDefinedRegisters()) {
-                String key = def.getRegister().toString();
-                //kill all the definitions with respect to the assigned register
-                Iterator<Integer> iter = mymap.get(key).iterator();
-                while (iter.hasNext())
-                    val.killVar(iter.next());
+            long[] g = gen[q.getID()], k = kill[q.getID()], set = val.set;
+            for (int w = 0; w < words; ++w) {
+                set[w] = g[w] | (set[w] & ~k[w]);
             }
-            if (q.getDefinedRegisters().size() > 0)
-                val.genVar(q.getID());
         }
     }
 
-    public class MyDataflowObject implements Flow.DataflowObject {
-        private Set<Integer> set;
+    public class MyDataflowObject implements Flow.MeetObject {
+        /**
+         * Bit i is set iff the definition with index i reaches.
+         */
+        private long[] set;
 
         /**
          * Methods from the Flow.DataflowObject interface.
          * See Flow.java for the meaning of these methods.
-         * These need to be filled in.
          */
         public MyDataflowObject() {
-            set = new TreeSet<Integer>();
+            set = new long[words];
         }
 
         public void setToTop() {
-            set = new TreeSet<Integer>();
+            for (int w = 0; w < words; ++w) set[w] = 0;
         }
 
         public void setToBottom() {
-            set = new TreeSet<Integer>(universalSet);
+            for (int w = 0; w < words; ++w) set[w] = -1L;
+            if (defs.length % 64 != 0) set[words - 1] = (1L << defs.length) - 1;
         }
 
         /**
@@ -210,26 +284,36 @@ public class ReachingDefs implements Flow.Analysis {
          */
         public void meetWith(Flow.DataflowObject o) {
             MyDataflowObject t = (MyDataflowObject) o;
-            this.set.addAll(t.set);
+            for (int w = 0; w < words; ++w) set[w] |= t.set[w];
+        }
+
+        public boolean meetChanged(Flow.DataflowObject o) {
+            MyDataflowObject t = (MyDataflowObject) o;
+            long changed = 0;
+            for (int w = 0; w < words; ++w) {
+                changed |= t.set[w] & ~set[w];
+                set[w] |= t.set[w];
+            }
+            return changed != 0;
         }
 
         public void copy(Flow.DataflowObject o) {
             MyDataflowObject t = (MyDataflowObject) o;
-            set = new TreeSet<Integer>(t.set);
+            System.arraycopy(t.set, 0, set, 0, words);
         }
 
         @Override
         public boolean equals(Object o) {
             if (o instanceof MyDataflowObject) {
                 MyDataflowObject a = (MyDataflowObject) o;
-                return set.equals(a.set);
+                return Arrays.equals(set, a.set);
             }
             return false;
         }
 
         @Override
         public int hashCode() {
-            return set.hashCode();
+            return Arrays.hashCode(set);
         }
 
         /**
@@ -243,15 +327,14 @@ public class ReachingDefs implements Flow.Analysis {
          */
         @Override
         public String toString() {
-            return set.toString();
-        }
-
-        public void genVar(int v) {
-            set.add(v);
-        }
-
-        public void killVar(int v) {
-            set.remove(v);
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < defs.length; ++i) {
+                if ((set[i >>> 6] & (1L << i)) != 0) {
+                    if (sb.length() > 1) sb.append(", ");
+                    sb.append(defs[i]);
+                }
+            }
+            return sb.append("]").toString();
         }
     }
 }
@@ -0,0 +1,122 @@
+package flow;
+
+import joeq.Compiler.Quad.ControlFlowGraph;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.Quad;
+import joeq.Compiler.Quad.QuadIterator;
+import joeq.Compiler.Quad.RegisterFactory.Register;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Interns the registers of a cfg (the arguments and every register defined
+ * or used by a quad) as dense ints, so that sets of registers can be stored
+ * as bit vectors.
+ * <p>
+ * The ids are assigned in the order of the register names, so iterating a
+ * BitSet of ids in ascending order gives the names in the same order as a
+ * TreeSet&lt;String&gt; would, which keeps the printed output unchanged.
+ */
+public class RegisterTable {
+    private String[] names;
+    // register number - min -> id, -1 when the register doesn't appear in the cfg;
+    // the numbers can be negative, e.g. the guard register T-1 of the checks
+    private int[] locals, temps;
+    private int minLocal, minTemp;
+
+    public RegisterTable(ControlFlowGraph cfg) {
+        // key is {isTemp ? 1 : 0, number}, i.e. the same identity as Register.toString()
+        TreeMap<String, int[]> sorted = new TreeMap<String, int[]>();
+        int maxLocal = -1, maxTemp = -1;
+        minLocal = 0;
+        minTemp = 0;
+        int numargs = cfg.getMethod().getParamTypes().length;
+        for (int i = 0; i < numargs; i++) {
+            sorted.put("R" + i, new int[]{0, i});
+            maxLocal = Math.max(maxLocal, i);
+        }
+        QuadIterator qit = new QuadIterator(cfg);
+        while (qit.hasNext()) {
+            Quad q = qit.next();
+            for (int k = 0; k < 2; ++k) {
+                for (RegisterOperand op : k == 0 ? q.getDefinedRegisters() : q.getUsedRegisters()) {
+                    Register r = op.getRegister();
+                    int n = r.getNumber();
+                    sorted.put(r.toString(), new int[]{r.isTemp() ? 1 : 0, n});
+                    if (r.isTemp()) {
+                        minTemp = Math.min(minTemp, n);
+                        maxTemp = Math.max(maxTemp, n);
+                    } else {
+                        minLocal = Math.min(minLocal, n);
+                        maxLocal = Math.max(maxLocal, n);
+                    }
+                }
+            }
+        }
+
+        names = new String[sorted.size()];
+        locals = new int[maxLocal - minLocal + 1];
+        temps = new int[maxTemp - minTemp + 1];
+        Arrays.fill(locals, -1);
+        Arrays.fill(temps, -1);
+        int id = 0;
+        for (Map.Entry<String, int[]> e : sorted.entrySet()) {
+            names[id] = e.getKey();
+            int[] key = e.getValue();
+            if (key[0] == 1) {
+                temps[key[1] - minTemp] = id;
+            } else {
+                locals[key[1] - minLocal] = id;
+            }
+            ++id;
+        }
+    }
+
+    /**
+     * Returns the number of interned registers, all ids are in [0, size()).
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns the id of r, or -1 if r doesn't appear in the cfg.
+     */
+    public int indexOf(Register r) {
+        if (!r.isTemp()) {
+            return indexOfLocal(r.getNumber());
+        }
+        int n = r.getNumber() - minTemp;
+        return n >= 0 && n < temps.length ? temps[n] : -1;
+    }
+
+    /**
+     * Returns the id of the local register Rn, e.g. of an argument,
+     * or -1 if it doesn't appear in the cfg.
+     */
+    public int indexOfLocal(int n) {
+        n -= minLocal;
+        return n >= 0 && n < locals.length ? locals[n] : -1;
+    }
+
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    /**
+     * Formats a set of ids like the toString() of the corresponding TreeSet&lt;String&gt;.
+     */
+    public String toString(BitSet set) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(names[i]);
+        }
+        return sb.append("]").toString();
+    }
+}
@@ -0,0 +1,400 @@
+package flow;
+
+import flow.ConstantProp.SingleCP;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.IConstOperand;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+
+import java.util.*;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck).
+ * <p>
+ * The quads are not in SSA form, so every definition (a register defined by a quad,
+ * plus one pseudo definition per register at the entry of the method) gets its own
+ * lattice cell, and values flow along the def-use chains computed from reaching
+ * definitions. Two worklists drive the propagation: a block worklist of the basic
+ * blocks which became executable through a newly executable edge, and a value worklist
+ * of definitions whose cell was lowered, which re-evaluates their uses. IFCMP_I quads whose operands are both constant only
+ * make the edge they actually take executable, so definitions in blocks that are never
+ * executed don't pollute the constants (their cells stay undef).
+ * <p>
+ * The analysis runs in the constructor; the result is queried through isExecutable
+ * and getValue.
+ */
+public class SCCP {
+    private RegisterTable table;
+    private int numargs;
+
+    private CfgIndex index;
+    private BasicBlock[] blockOf;
+    // block id -> the ordinals of its quads, which QuadIterator visits in a row
+    private int[] blockStart, blockEnd;
+
+    // definitions: the defined register of each, the last table.size() are entry definitions
+    private int numDefs;
+    private int[] defReg;
+    private BitSet[] defsOfReg;
+    private int[][] defsOfQuad;
+    // for every quad, the ids of the used registers and the definitions reaching each of them
+    private int[][] useRegs;
+    private int[][][] useDefs;
+    private List<List<Integer>> usesOfDef;
+
+    private SingleCP[] cell;
+    // indexed by block id; executableEdges[from] holds the ids of the executable successors
+    private boolean[] executable;
+    private BasicBlock[] blocks;
+    private BitSet[] executableEdges;
+    private IntQueue blockWorklist;
+    private IntQueue valueWorklist;
+    private boolean[] queuedDef;
+
+    public SCCP(ControlFlowGraph cfg) {
+        table = new RegisterTable(cfg);
+        numargs = cfg.getMethod().getParamTypes().length;
+        buildDefUse(cfg);
+        solve(cfg);
+    }
+
+    /**
+     * Returns whether bb may be executed.
+     */
+    public boolean isExecutable(BasicBlock bb) {
+        return bb.getID() < executable.length && executable[bb.getID()];
+    }
+
+    /**
+     * Returns whether the edge from one basic block to another may be taken.
+     */
+    public boolean isExecutable(BasicBlock from, BasicBlock to) {
+        return isExecutable(from) && executableEdges[from.getID()].get(to.getID());
+    }
+
+    /**
+     * Returns the value of op (a constant or a register used by q) just before q.
+     */
+    public SingleCP getValue(Quad q, Operand op) {
+        SingleCP ret = new SingleCP();
+        if (op instanceof IConstOperand) {
+            ret.setConst(((IConstOperand) op).getValue());
+        } else if (op instanceof RegisterOperand) {
+            int r = table.indexOf(((RegisterOperand) op).getRegister());
+            int o = index.ordinal(q);
+            for (int i = 0; i < useRegs[o].length; ++i) {
+                if (useRegs[o][i] == r) {
+                    for (int d : useDefs[o][i]) {
+                        ret.meetWith(cell[d]);
+                    }
+                    return ret;
+                }
+            }
+            ret.setNAC();
+        } else {
+            ret.setNAC();
+        }
+        return ret;
+    }
+
+    private void buildDefUse(ControlFlowGraph cfg) {
+        index = CfgIndex.of(cfg);
+        int n = index.size();
+        int numBlocks = cfg.getNumberOfBasicBlocks();
+        blockOf = new BasicBlock[n];
+        blockStart = new int[numBlocks];
+        blockEnd = new int[numBlocks];
+        for (QuadIterator it = new QuadIterator(cfg); it.hasNext(); ) {
+            int i = index.ordinal(it.next());
+            BasicBlock bb = it.getCurrentBasicBlock();
+            blockOf[i] = bb;
+            if (blockEnd[bb.getID()] == 0) {
+                blockStart[bb.getID()] = i;
+            }
+            blockEnd[bb.getID()] = i + 1;
+        }
+
+        // number the definitions
+        ArrayList<Integer> defs = new ArrayList<Integer>();
+        defsOfQuad = new int[n][];
+        for (int i = 0; i < n; ++i) {
+            List<RegisterOperand> def = index.quad(i).getDefinedRegisters();
+            defsOfQuad[i] = new int[def.size()];
+            for (int j = 0; j < def.size(); ++j) {
+                defsOfQuad[i][j] = defs.size();
+                defs.add(table.indexOf(def.get(j).getRegister()));
+            }
+        }
+        for (int r = 0; r < table.size(); ++r) {
+            defs.add(r);
+        }
+        numDefs = defs.size();
+        defReg = new int[numDefs];
+        defsOfReg = new BitSet[table.size()];
+        for (int r = 0; r < table.size(); ++r) {
+            defsOfReg[r] = new BitSet(numDefs);
+        }
+        for (int d = 0; d < numDefs; ++d) {
+            defReg[d] = defs.get(d);
+            defsOfReg[defReg[d]].set(d);
+        }
+
+        // reaching definitions, to the fixpoint
+        BitSet entry = new BitSet(numDefs);
+        entry.set(numDefs - table.size(), numDefs);
+        BitSet[] in = new BitSet[n], out = new BitSet[n];
+        for (int i = 0; i < n; ++i) {
+            in[i] = new BitSet(numDefs);
+            out[i] = new BitSet(numDefs);
+        }
+        IntQueue worklist = new IntQueue(n);
+        boolean[] queued = new boolean[n];
+        for (int i = 0; i < n; ++i) {
+            worklist.add(i);
+            queued[i] = true;
+        }
+        while (!worklist.isEmpty()) {
+            int i = worklist.remove();
+            queued[i] = false;
+            in[i].clear();
+            for (int k = index.predStart[i]; k < index.predStart[i + 1]; ++k) {
+                int p = index.preds[k];
+                in[i].or(p == CfgIndex.ENTRY_EXIT ? entry : out[p]);
+            }
+            BitSet o = (BitSet) in[i].clone();
+            for (int d : defsOfQuad[i]) {
+                o.andNot(defsOfReg[defReg[d]]);
+            }
+            for (int d : defsOfQuad[i]) {
+                o.set(d);
+            }
+            if (!o.equals(out[i])) {
+                out[i] = o;
+                for (int k = index.succStart[i]; k < index.succStart[i + 1]; ++k) {
+                    int s = index.succs[k];
+                    if (s != CfgIndex.ENTRY_EXIT && !queued[s]) {
+                        queued[s] = true;
+                        worklist.add(s);
+                    }
+                }
+            }
+        }
+
+        // def-use chains
+        usesOfDef = new ArrayList<List<Integer>>();
+        for (int d = 0; d < numDefs; ++d) {
+            usesOfDef.add(new ArrayList<Integer>());
+        }
+        useRegs = new int[n][];
+        useDefs = new int[n][][];
+        for (int i = 0; i < n; ++i) {
+            List<RegisterOperand> use = index.quad(i).getUsedRegisters();
+            useRegs[i] = new int[use.size()];
+            useDefs[i] = new int[use.size()][];
+            for (int j = 0; j < use.size(); ++j) {
+                int r = table.indexOf(use.get(j).getRegister());
+                BitSet reaching = (BitSet) in[i].clone();
+                reaching.and(defsOfReg[r]);
+                useRegs[i][j] = r;
+                useDefs[i][j] = new int[reaching.cardinality()];
+                int k = 0;
+                for (int d = reaching.nextSetBit(0); d >= 0; d = reaching.nextSetBit(d + 1)) {
+                    useDefs[i][j][k++] = d;
+                    usesOfDef.get(d).add(i);
+                }
+            }
+        }
+    }
+
+    private void solve(ControlFlowGraph cfg) {
+        cell = new SingleCP[numDefs];
+        for (int d = 0; d < numDefs; ++d) {
+            cell[d] = new SingleCP();
+        }
+        /* Arguments are the only registers with a value at the entry. */
+        for (int i = 0; i < numargs; i++) {
+            cell[numDefs - table.size() + table.indexOfLocal(i)].setNAC();
+        }
+
+        int numBlocks = blockStart.length;
+        executable = new boolean[numBlocks];
+        executableEdges = new BitSet[numBlocks];
+        for (int b = 0; b < numBlocks; ++b) {
+            executableEdges[b] = new BitSet();
+        }
+        blockWorklist = new IntQueue(numBlocks);
+        valueWorklist = new IntQueue(numDefs);
+        queuedDef = new boolean[numDefs];
+        blocks = new BasicBlock[numBlocks];
+
+        blocks[cfg.entry().getID()] = cfg.entry();
+        executable[cfg.entry().getID()] = true;
+        blockWorklist.add(cfg.entry().getID());
+        while (!blockWorklist.isEmpty() || !valueWorklist.isEmpty()) {
+            while (!blockWorklist.isEmpty()) {
+                visitBlock(blocks[blockWorklist.remove()]);
+            }
+            while (!valueWorklist.isEmpty()) {
+                int d = valueWorklist.remove();
+                queuedDef[d] = false;
+                for (int u : usesOfDef.get(d)) {
+                    if (executable[blockOf[u].getID()]) {
+                        evaluate(u);
+                    }
+                }
+            }
+        }
+    }
+
+    private void markEdge(BasicBlock from, BasicBlock to) {
+        executableEdges[from.getID()].set(to.getID());
+        if (!executable[to.getID()]) {
+            blocks[to.getID()] = to;
+            executable[to.getID()] = true;
+            blockWorklist.add(to.getID());
+        }
+    }
+
+    private void visitBlock(BasicBlock bb) {
+        int start = blockStart[bb.getID()], end = blockEnd[bb.getID()];
+        if (start == end) {
+            for (BasicBlock s : bb.getSuccessors()) {
+                markEdge(bb, s);
+            }
+        } else {
+            for (int i = start; i < end; ++i) {
+                evaluate(i);
+            }
+        }
+        if (bb.getExceptionHandlers() != null) {
+            for (ExceptionHandler h : bb.getExceptionHandlers()) {
+                markEdge(bb, h.getEntry());
+            }
+        }
+    }
+
+    private void evaluate(int i) {
+        Quad q = index.quad(i);
+        Operator op = q.getOperator();
+        for (int d : defsOfQuad[i]) {
+            SingleCP v = defsOfQuad[i].length == 1 ? compute(q) : nac();
+            SingleCP old = new SingleCP();
+            old.copy(cell[d]);
+            cell[d].meetWith(v);
+            if (!old.equals(cell[d]) && !queuedDef[d]) {
+                queuedDef[d] = true;
+                valueWorklist.add(d);
+            }
+        }
+
+        BasicBlock bb = blockOf[i];
+        if (bb.getLastQuad() != q) {
+            return;
+        }
+        if (op instanceof Operator.IntIfCmp.IFCMP_I) {
+            SingleCP a = getValue(q, Operator.IntIfCmp.getSrc1(q));
+            SingleCP b = getValue(q, Operator.IntIfCmp.getSrc2(q));
+            BasicBlock target = Operator.IntIfCmp.getTarget(q).getTarget();
+            BasicBlock fallthrough = bb.getFallthroughSuccessor();
+            if (a.isUndef() || b.isUndef()) {
+                return;
+            }
+            if (a.isConst() && b.isConst()) {
+                byte cond = Operator.IntIfCmp.getCond(q).getCondition();
+                markEdge(bb, taken(cond, a.getConst(), b.getConst()) ? target : fallthrough);
+                return;
+            }
+        }
+        for (BasicBlock s : bb.getSuccessors()) {
+            markEdge(bb, s);
+        }
+    }
+
+    /* Same encoding as joeq's BytecodeVisitor.CMP_* */
+    private static boolean taken(byte cond, int a, int b) {
+        switch (cond) {
+            case 0:
+                return a == b;
+            case 1:
+                return a != b;
+            case 2:
+                return a < b;
+            case 3:
+                return a >= b;
+            case 4:
+                return a <= b;
+            case 5:
+                return a > b;
+            case 6:
+                return (a ^ Integer.MIN_VALUE) >= (b ^ Integer.MIN_VALUE);
+            default:
+                return true;
+        }
+    }
+
+    private static SingleCP nac() {
+        SingleCP ret = new SingleCP();
+        ret.setNAC();
+        return ret;
+    }
+
+    /**
+     * The value of the register defined by q, given the current values of its operands.
+     */
+    private SingleCP compute(Quad q) {
+        Operator opr = q.getOperator();
+        if (opr instanceof Operator.Move) {
+            return getValue(q, Operator.Move.getSrc(q));
+        }
+        if (opr == Operator.Unary.NEG_I.INSTANCE) {
+            SingleCP a = getValue(q, Operator.Unary.getSrc(q));
+            if (a.isConst()) {
+                a.setConst(-a.getConst());
+            }
+            return a;
+        }
+        if (opr instanceof Operator.Binary) {
+            SingleCP a = getValue(q, Operator.Binary.getSrc1(q));
+            SingleCP b = getValue(q, Operator.Binary.getSrc2(q));
+            if (!isFoldable(opr) || a.isNAC() || b.isNAC()) {
+                return nac();
+            }
+            if (a.isUndef() || b.isUndef()) {
+                return new SingleCP();
+            }
+            int x = a.getConst(), y = b.getConst();
+            if ((opr == Operator.Binary.DIV_I.INSTANCE || opr == Operator.Binary.REM_I.INSTANCE) && y == 0) {
+                return nac(); // throws at run time
+            }
+            a.setConst(fold(opr, x, y));
+            return a;
+        }
+        return nac();
+    }
+
+    /**
+     * Returns whether opr is an int Binary operator that fold can evaluate.
+     */
+    public static boolean isFoldable(Operator opr) {
+        return opr == Operator.Binary.ADD_I.INSTANCE || opr == Operator.Binary.SUB_I.INSTANCE
+                || opr == Operator.Binary.MUL_I.INSTANCE || opr == Operator.Binary.DIV_I.INSTANCE
+                || opr == Operator.Binary.REM_I.INSTANCE || opr == Operator.Binary.AND_I.INSTANCE
+                || opr == Operator.Binary.OR_I.INSTANCE || opr == Operator.Binary.XOR_I.INSTANCE
+                || opr == Operator.Binary.SHL_I.INSTANCE || opr == Operator.Binary.SHR_I.INSTANCE
+                || opr == Operator.Binary.USHR_I.INSTANCE;
+    }
+
+    public static int fold(Operator opr, int x, int y) {
+        if (opr == Operator.Binary.ADD_I.INSTANCE) return x + y;
+        if (opr == Operator.Binary.SUB_I.INSTANCE) return x - y;
+        if (opr == Operator.Binary.MUL_I.INSTANCE) return x * y;
+        if (opr == Operator.Binary.DIV_I.INSTANCE) return x / y;
+        if (opr == Operator.Binary.REM_I.INSTANCE) return x % y;
+        if (opr == Operator.Binary.AND_I.INSTANCE) return x & y;
+        if (opr == Operator.Binary.OR_I.INSTANCE) return x | y;
+        if (opr == Operator.Binary.XOR_I.INSTANCE) return x ^ y;
+        if (opr == Operator.Binary.SHL_I.INSTANCE) return x << y;
+        if (opr == Operator.Binary.SHR_I.INSTANCE) return x >> y;
+        if (opr == Operator.Binary.USHR_I.INSTANCE) return x >>> y;
+        throw new IllegalArgumentException("Tried to fold " + opr);
+    }
+}
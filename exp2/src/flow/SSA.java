@@ -0,0 +1,467 @@
+package flow;
+
+import joeq.Class.jq_Class;
+import joeq.Class.jq_Type;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.RegisterFactory.Register;
+import joeq.Interpreter.QuadInterpreter;
+import joeq.Main.Driver;
+import joeq.Main.Helper;
+
+import java.util.*;
+
+/**
+ * Converts a cfg to SSA form in place, and back.
+ * <p>
+ * construct() places pruned phi functions at the iterated dominance
+ * frontiers of the definitions of every register (only where it is live),
+ * then renames every definition to a fresh register while walking the
+ * dominator tree, so that every register is defined at most once and
+ * every use is dominated by its definition. The def-use chains collected on
+ * the way make sparse analyses possible: their cost is proportional to the
+ * number of def-use edges instead of quads times registers.
+ * <p>
+ * Exception edges are not split, so a handler could see a register as it
+ * was at any quad of a protected block. A register defined in a protected
+ * block and live at its handler, or needing a phi at a handler entry, is
+ * therefore left as it was: it keeps its name, may have several
+ * definitions, and definition() returns null for it. Arguments and the
+ * guard registers of the checks keep their names as well. Subroutines
+ * (JSR/RET) are not supported.
+ * <p>
+ * destruct() replaces every phi "x = PHI(a from P, ...)" with a move from a
+ * fresh register t at the same place, and a move "t = a" at the end of
+ * every predecessor P. t is only read by that move, so no critical edge has
+ * to be split and phis of one block can't overwrite each other's operands.
+ * <p>
+ * main() converts every method of the given classes to SSA form and back,
+ * printing every cfg in SSA form, and then runs the -m class with the -p
+ * arguments in the interpreter, like submit.Optimize, e.g.
+ * <pre>
+ * ./run.sh flow.SSA test.QuickSort -m test.QuickSort -p 20
+ * </pre>
+ */
+public class SSA {
+    private final ControlFlowGraph cfg;
+    // new register -> the register it was renamed from
+    private final HashMap<Register, Register> original = new HashMap<Register, Register>();
+    // new register -> the quad defining it
+    private final HashMap<Register, Quad> definitions = new HashMap<Register, Quad>();
+    // register -> the quads using it, for every register in use after renaming
+    private final HashMap<Register, List<Quad>> uses = new HashMap<Register, List<Quad>>();
+    private final ArrayList<Quad> phis = new ArrayList<Quad>();
+
+    public static void main(String[] args) {
+        List<String> classes = new ArrayList<String>();
+        String mainClass = null;
+        List<String> params = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-m")) {
+                mainClass = args[++i];
+            } else if (args[i].equals("-p")) {
+                params.addAll(Arrays.asList(args[++i].split(",")));
+            } else {
+                classes.add(args[i]);
+            }
+        }
+
+        for (String name : classes) {
+            jq_Class clazz = (jq_Class) Helper.load(name);
+            System.out.println("Class: " + clazz.getName());
+            Helper.runPass(clazz, new ControlFlowGraphVisitor() {
+                public void visitCFG(ControlFlowGraph cfg) {
+                    SSA ssa = construct(cfg);
+                    System.out.println(cfg.fullDump());
+                    ssa.destruct();
+                }
+            });
+        }
+
+        if (mainClass != null) {
+            String[] driverArgs = new String[params.size() + 4];
+            driverArgs[0] = "interpret";
+            driverArgs[1] = mainClass + ".main";
+            driverArgs[2] = "{";
+            for (int i = 0; i < params.size(); i++) {
+                driverArgs[i + 3] = params.get(i);
+            }
+            driverArgs[params.size() + 3] = "}";
+            QuadInterpreter.num_quads = 0;
+            QuadInterpreter.num_nullchecks = 0;
+            Driver.main(driverArgs);
+        }
+    }
+
+    private SSA(ControlFlowGraph cfg) {
+        this.cfg = cfg;
+    }
+
+    /**
+     * Returns false if cfg uses something construct() can't handle, i.e. a
+     * subroutine or a phi.
+     */
+    public static boolean supports(ControlFlowGraph cfg) {
+        QuadIterator qit = new QuadIterator(cfg);
+        while (qit.hasNext()) {
+            Operator op = qit.next().getOperator();
+            if (op instanceof Operator.Jsr || op instanceof Operator.Ret || op instanceof Operator.Phi) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts cfg to SSA form.
+     *
+     * @throws IllegalArgumentException if !supports(cfg)
+     */
+    public static SSA construct(ControlFlowGraph cfg) {
+        if (!supports(cfg)) {
+            throw new IllegalArgumentException(cfg.getMethod() + " has subroutines or is in SSA form already");
+        }
+        SSA ssa = new SSA(cfg);
+        ssa.build();
+        CfgIndex.invalidate(cfg);
+        return ssa;
+    }
+
+    public ControlFlowGraph getCFG() {
+        return cfg;
+    }
+
+    /**
+     * Returns the register r was renamed from, or r itself if it wasn't renamed.
+     */
+    public Register original(Register r) {
+        Register o = original.get(r);
+        return o == null ? r : o;
+    }
+
+    /**
+     * Returns the only quad defining r, or null if r is an argument, is
+     * defined nowhere or was left out of SSA form.
+     */
+    public Quad definition(Register r) {
+        return definitions.get(r);
+    }
+
+    /**
+     * Returns the quads using r right after construction.
+     */
+    public List<Quad> uses(Register r) {
+        List<Quad> ret = uses.get(r);
+        return ret == null ? Collections.<Quad>emptyList() : Collections.unmodifiableList(ret);
+    }
+
+    /**
+     * Returns the phis inserted by construct().
+     */
+    public List<Quad> phis() {
+        return Collections.unmodifiableList(phis);
+    }
+
+    private void build() {
+        // the first block can't hold phis, as its predecessor is the entry,
+        // which can't hold the moves of destruct(), so give it one predecessor
+        BasicBlock first = cfg.entry().getFallthroughSuccessor();
+        if (first != null && first.getNumberOfPredecessors() > 1) {
+            BasicBlock landing = cfg.createBasicBlock(1, 1, 0, null);
+            cfg.entry().removeSuccessor(first);
+            cfg.entry().addSuccessor(landing);
+            landing.addPredecessor(cfg.entry());
+            landing.addSuccessor(first);
+            first.removePredecessor(cfg.entry());
+            first.addPredecessor(landing);
+            DominatorTree.invalidate(cfg);
+        }
+
+        DominatorTree dom = DominatorTree.of(cfg);
+        RegisterTable table = new RegisterTable(cfg);
+        int n = dom.size(), numVars = table.size();
+
+        // registers and types by id, and the upward exposed uses and the defs of every block
+        Register[] regs = new Register[numVars];
+        jq_Type[] types = new jq_Type[numVars];
+        BitSet[] gen = new BitSet[n], kill = new BitSet[n];
+        ArrayList<ArrayList<Integer>> defSites = new ArrayList<ArrayList<Integer>>(numVars);
+        for (int v = 0; v < numVars; ++v) {
+            defSites.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < n; ++i) {
+            gen[i] = new BitSet(numVars);
+            kill[i] = new BitSet(numVars);
+            for (ListIterator<Quad> it = dom.block(i).iterator(); it.hasNext(); ) {
+                Quad q = it.next();
+                for (RegisterOperand use : q.getUsedRegisters()) {
+                    int v = intern(table, use, regs, types);
+                    if (!kill[i].get(v)) {
+                        gen[i].set(v);
+                    }
+                }
+                for (RegisterOperand def : q.getDefinedRegisters()) {
+                    int v = intern(table, def, regs, types);
+                    if (!kill[i].get(v)) {
+                        kill[i].set(v);
+                        defSites.get(v).add(i);
+                    }
+                }
+            }
+        }
+
+        // liveness per block; a register live at a handler is live all over the blocks it protects
+        BitSet[] liveIn = new BitSet[n];
+        for (int i = 0; i < n; ++i) {
+            liveIn[i] = new BitSet(numVars);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = n - 1; i >= 0; --i) {
+                BasicBlock b = dom.block(i);
+                BitSet live = new BitSet(numVars);
+                for (BasicBlock s : b.getSuccessors()) {
+                    or(live, liveIn, dom.number(s));
+                }
+                live.andNot(kill[i]);
+                live.or(gen[i]);
+                for (BasicBlock h : b.getExceptionHandlerEntries()) {
+                    or(live, liveIn, dom.number(h));
+                }
+                if (!live.equals(liveIn[i])) {
+                    liveIn[i] = live;
+                    changed = true;
+                }
+            }
+        }
+
+        // the guards of the checks (T-1) aren't values, and a check shares its guard
+        // operand with the quads it protects, so renaming its definition would rename them too
+        BitSet pinned = new BitSet(numVars);
+        for (int v = 0; v < numVars; ++v) {
+            if (regs[v] != null && regs[v].isGuard()) {
+                pinned.set(v);
+            }
+        }
+        for (int i = 0; i < n; ++i) {
+            for (BasicBlock h : dom.block(i).getExceptionHandlerEntries()) {
+                int j = dom.number(h);
+                if (j >= 0) {
+                    BitSet b = (BitSet) kill[i].clone();
+                    b.and(liveIn[j]);
+                    pinned.or(b);
+                }
+            }
+        }
+
+        // the registers needing a phi in every block, at the iterated dominance frontiers
+        ArrayList<ArrayList<Integer>> phiVars = new ArrayList<ArrayList<Integer>>(n);
+        for (int i = 0; i < n; ++i) {
+            phiVars.add(new ArrayList<Integer>());
+        }
+        int[] hasPhi = new int[n], queued = new int[n];
+        Arrays.fill(hasPhi, -1);
+        Arrays.fill(queued, -1);
+        ArrayList<Integer> placed = new ArrayList<Integer>();
+        for (int v = 0; v < numVars; ++v) {
+            if (pinned.get(v)) {
+                continue;
+            }
+            placed.clear();
+            ArrayList<Integer> work = new ArrayList<Integer>(defSites.get(v));
+            for (int i : work) {
+                queued[i] = v;
+            }
+            boolean ok = true;
+            while (ok && !work.isEmpty()) {
+                int x = work.remove(work.size() - 1);
+                for (int k = dom.frontierStart[x]; k < dom.frontierStart[x + 1]; ++k) {
+                    int y = dom.frontier[k];
+                    if (hasPhi[y] == v || !liveIn[y].get(v)) {
+                        continue;
+                    }
+                    if (dom.block(y).isExceptionHandlerEntry()) {
+                        ok = false;
+                        break;
+                    }
+                    hasPhi[y] = v;
+                    placed.add(y);
+                    if (queued[y] != v) {
+                        queued[y] = v;
+                        work.add(y);
+                    }
+                }
+            }
+            if (!ok) {
+                pinned.set(v);
+                continue;
+            }
+            for (int y : placed) {
+                phiVars.get(y).add(v);
+            }
+        }
+
+        // insert the phis, with the unrenamed registers as operands until renaming fills them in
+        for (int i = 0; i < n; ++i) {
+            BasicBlock b = dom.block(i);
+            List<BasicBlock> preds = b.getPredecessors();
+            int pos = 0;
+            for (int v : phiVars.get(i)) {
+                Quad phi = Operator.Phi.create(cfg.getNewQuadID(), Operator.Phi.PHI.INSTANCE,
+                        new RegisterOperand(regs[v], types[v]), preds.size());
+                for (int k = 0; k < preds.size(); ++k) {
+                    Operator.Phi.setPred(phi, k, preds.get(k));
+                    Operator.Phi.setSrc(phi, k, new RegisterOperand(regs[v], types[v]));
+                }
+                b.addQuad(pos++, phi);
+                phis.add(phi);
+            }
+        }
+
+        rename(dom, table, regs, pinned);
+    }
+
+    private static int intern(RegisterTable table, RegisterOperand op, Register[] regs, jq_Type[] types) {
+        int v = table.indexOf(op.getRegister());
+        if (regs[v] == null) {
+            regs[v] = op.getRegister();
+            types[v] = op.getType();
+        }
+        return v;
+    }
+
+    private static void or(BitSet dst, BitSet[] sets, int i) {
+        if (i >= 0) {
+            dst.or(sets[i]);
+        }
+    }
+
+    /**
+     * Renames every definition of the registers which aren't pinned, walking
+     * the dominator tree with an explicit stack so that deep trees don't
+     * overflow the Java stack.
+     */
+    private void rename(DominatorTree dom, RegisterTable table, Register[] regs, BitSet pinned) {
+        RegisterFactory rf = cfg.getRegisterFactory();
+        // the current name of every register, and the names to restore when leaving a subtree
+        Register[] current = regs.clone();
+        ArrayList<Integer> undoVar = new ArrayList<Integer>();
+        ArrayList<Register> undoReg = new ArrayList<Register>();
+
+        // a block is pushed as i + 1 to enter it and as -(i + 1) to leave it
+        int[] stack = new int[2 * dom.size()];
+        int[] undoMark = new int[dom.size()];
+        int top = 0;
+        if (dom.size() > 0) {
+            stack[top++] = 1;
+        }
+        while (top > 0) {
+            int e = stack[--top];
+            if (e < 0) {
+                int i = -e - 1;
+                for (int k = undoVar.size() - 1; k >= undoMark[i]; --k) {
+                    current[undoVar.remove(k)] = undoReg.remove(k);
+                }
+                continue;
+            }
+            int i = e - 1;
+            BasicBlock b = dom.block(i);
+            undoMark[i] = undoVar.size();
+            for (ListIterator<Quad> it = b.iterator(); it.hasNext(); ) {
+                Quad q = it.next();
+                if (!(q.getOperator() instanceof Operator.Phi)) {
+                    for (RegisterOperand use : q.getUsedRegisters()) {
+                        int v = table.indexOf(use.getRegister());
+                        if (!pinned.get(v)) {
+                            use.setRegister(current[v]);
+                        }
+                        addUse(use.getRegister(), q);
+                    }
+                }
+                for (RegisterOperand def : q.getDefinedRegisters()) {
+                    int v = table.indexOf(def.getRegister());
+                    if (pinned.get(v)) {
+                        continue;
+                    }
+                    Register r = rf.makeReg(regs[v]);
+                    original.put(r, regs[v]);
+                    definitions.put(r, q);
+                    def.setRegister(r);
+                    undoVar.add(v);
+                    undoReg.add(current[v]);
+                    current[v] = r;
+                }
+            }
+
+            // fill in the operands of the phis of the successors which come from b
+            for (BasicBlock s : b.getSuccessors()) {
+                for (ListIterator<Quad> it = s.iterator(); it.hasNext(); ) {
+                    Quad phi = it.next();
+                    if (!(phi.getOperator() instanceof Operator.Phi)) {
+                        break;
+                    }
+                    int v = table.indexOf(original(Operator.Phi.getDest(phi).getRegister()));
+                    for (int k = 0; k < Operator.Phi.getPreds(phi).size(); ++k) {
+                        if (Operator.Phi.getPred(phi, k) == b) {
+                            Operator.Phi.getSrc(phi, k).setRegister(current[v]);
+                            addUse(current[v], phi);
+                        }
+                    }
+                }
+            }
+
+            stack[top++] = -(i + 1);
+            for (int k = dom.childStart[i + 1] - 1; k >= dom.childStart[i]; --k) {
+                stack[top++] = dom.children[k] + 1;
+            }
+        }
+    }
+
+    private void addUse(Register r, Quad q) {
+        List<Quad> list = uses.get(r);
+        if (list == null) {
+            list = new ArrayList<Quad>(2);
+            uses.put(r, list);
+        }
+        list.add(q);
+    }
+
+    /**
+     * Replaces every phi of the cfg by moves, see the class comment. The
+     * renamed registers stay, copy propagation can clean up the moves.
+     */
+    public void destruct() {
+        RegisterFactory rf = cfg.getRegisterFactory();
+        DominatorTree dom = DominatorTree.of(cfg);
+        for (int i = 0; i < dom.size(); ++i) {
+            BasicBlock b = dom.block(i);
+            for (int pos = 0; pos < b.size() && b.getQuad(pos).getOperator() instanceof Operator.Phi; ++pos) {
+                Quad phi = b.getQuad(pos);
+                RegisterOperand dest = Operator.Phi.getDest(phi);
+                Register t = rf.makeReg(dest.getRegister());
+                Operator.Move op = Operator.Move.getMoveOp(dest.getType());
+                HashSet<BasicBlock> done = new HashSet<BasicBlock>();
+                for (int k = 0; k < Operator.Phi.getPreds(phi).size(); ++k) {
+                    BasicBlock p = Operator.Phi.getPred(phi, k);
+                    RegisterOperand src = Operator.Phi.getSrc(phi, k);
+                    if (p == null || src == null || !done.add(p)) {
+                        continue;
+                    }
+                    Quad move = Operator.Move.create(cfg.getNewQuadID(), op,
+                            new RegisterOperand(t, dest.getType()), src.copy());
+                    Quad last = p.size() == 0 ? null : p.getLastQuad();
+                    if (last != null && last.getOperator() instanceof Operator.Branch) {
+                        p.addQuad(p.size() - 1, move);
+                    } else {
+                        p.appendQuad(move);
+                    }
+                }
+                b.replaceQuad(pos, Operator.Move.create(cfg.getNewQuadID(), op,
+                        (RegisterOperand) dest.copy(), new RegisterOperand(t, dest.getType())));
+            }
+        }
+        phis.clear();
+        CfgIndex.invalidate(cfg);
+    }
+}
@@ -0,0 +1,151 @@
+package flow;
+
+import joeq.Class.jq_Method;
+import joeq.Compiler.Quad.ControlFlowGraph;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Counts the work one solver run does on one cfg.
+ * <p>
+ * The solvers open a record with begin() at the start of visitCFG, bump its
+ * counters while solving and close it with end(). Nothing is kept unless
+ * the flow.metrics system property is "csv" or "json"; then report() prints
+ * all records collected so far, to the file named by flow.metrics.file or to
+ * System.err, e.g.
+ * <pre>
+ * ./run.sh -Dflow.metrics=csv flow.Flow flow.WorklistSolver flow.Liveness test.SkipList
+ * </pre>
+ * The counters are:
+ * <ul>
+ * <li>rounds: sweeps over the quads for the round-robin solvers, and the
+ * largest number of times one quad (or segment) was processed for the
+ * worklist solvers</li>
+ * <li>transfers: calls of processQuad or BlockAnalysis.transfer</li>
+ * <li>meets, copies: calls of meetWith and copy made by the solver</li>
+ * <li>temps: calls of newTempVar made by the solver</li>
+ * <li>bytes: bytes allocated by the thread, including preprocess and
+ * postprocess, or -1 when the JVM can't tell</li>
+ * <li>nanos: wall time of the whole visitCFG</li>
+ * </ul>
+ */
+public class SolverMetrics {
+    private static final String FORMAT = System.getProperty("flow.metrics");
+    private static final List<SolverMetrics> records = new ArrayList<SolverMetrics>();
+
+    private final String method, solver, analysis;
+    int rounds;
+    long transfers, meets, copies, temps;
+    private long bytes, nanos;
+
+    private SolverMetrics(String method, String solver, String analysis) {
+        this.method = method;
+        this.solver = solver;
+        this.analysis = analysis;
+    }
+
+    public static boolean isEnabled() {
+        return FORMAT != null;
+    }
+
+    public static SolverMetrics begin(Flow.Solver solver, Flow.Analysis analysis, ControlFlowGraph cfg) {
+        jq_Method m = cfg.getMethod();
+        SolverMetrics ret = new SolverMetrics(m.getDeclaringClass().getName() + "." + m.getName() + m.getDesc(),
+                solver.getClass().getName(), analysis.getClass().getName());
+        if (isEnabled()) {
+            ret.bytes = AllocationCounter.currentThreadBytes();
+            ret.nanos = System.nanoTime();
+        }
+        return ret;
+    }
+
+    /**
+     * Records that some quad or segment has been processed count times.
+     */
+    void visited(int count) {
+        rounds = Math.max(rounds, count);
+    }
+
+    public void end() {
+        if (!isEnabled()) {
+            return;
+        }
+        nanos = System.nanoTime() - nanos;
+        bytes = bytes < 0 ? -1 : AllocationCounter.currentThreadBytes() - bytes;
+        synchronized (records) {
+            records.add(this);
+        }
+    }
+
+    /**
+     * Prints and clears the records collected so far, sorted by method so
+     * that parallel runs give the same order. Does nothing if disabled.
+     */
+    public static void report() {
+        if (!isEnabled()) {
+            return;
+        }
+        List<SolverMetrics> list;
+        synchronized (records) {
+            list = new ArrayList<SolverMetrics>(records);
+            records.clear();
+        }
+        // stable, so the runs on one method stay in the order they happened in
+        Collections.sort(list, new Comparator<SolverMetrics>() {
+            public int compare(SolverMetrics a, SolverMetrics b) {
+                return a.method.compareTo(b.method);
+            }
+        });
+
+        String file = System.getProperty("flow.metrics.file");
+        PrintStream out = System.err;
+        try {
+            if (file != null) {
+                out = new PrintStream(new FileOutputStream(file), false);
+            }
+        } catch (IOException e) {
+            System.err.println("ERROR: Could not open '" + file + "': " + e);
+        }
+        if (FORMAT.equals("json")) {
+            out.println("[");
+            for (int i = 0; i < list.size(); ++i) {
+                out.println("  " + list.get(i).toJson() + (i + 1 < list.size() ? "," : ""));
+            }
+            out.println("]");
+        } else {
+            out.println("method,solver,analysis,rounds,transfers,meets,copies,temps,bytes,nanos");
+            for (SolverMetrics m : list) {
+                out.println(m.toCsv());
+            }
+        }
+        if (out != System.err) {
+            out.close();
+        } else {
+            out.flush();
+        }
+    }
+
+    private String toCsv() {
+        return csv(method) + "," + solver + "," + analysis + "," + rounds + "," + transfers + ","
+                + meets + "," + copies + "," + temps + "," + bytes + "," + nanos;
+    }
+
+    private String toJson() {
+        return "{\"method\": " + json(method) + ", \"solver\": " + json(solver) + ", \"analysis\": " + json(analysis)
+                + ", \"rounds\": " + rounds + ", \"transfers\": " + transfers + ", \"meets\": " + meets
+                + ", \"copies\": " + copies + ", \"temps\": " + temps + ", \"bytes\": " + bytes
+                + ", \"nanos\": " + nanos + "}";
+    }
+
+    // quoted, since method descriptors contain characters like ';' and '['
+    private static String csv(String s) {
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String json(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
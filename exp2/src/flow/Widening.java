@@ -0,0 +1,146 @@
+package flow;
+
+import joeq.Compiler.Quad.Quad;
+import flow.Flow.DataflowObject;
+
+/**
+ * Widening at the loop heads of a cfg and narrowing afterwards, for the
+ * solvers of analyses whose values are Flow.WideningObjects.
+ * <p>
+ * A quad is a loop head if a value flows into it from a quad which doesn't
+ * come before it in the order of the CfgIndex (reverse postorder), i.e.
+ * along a back edge for a forward analysis; WtoSolver uses the heads of its
+ * components instead. Every cycle contains a loop head either way, so
+ * widening there is enough for the solver to terminate. The first
+ * values of a loop head are met as usual, so that a loop which settles
+ * quickly isn't widened at all; after that its old value is widened with
+ * the met one. The number of plain meets is the flow.widening.delay system
+ * property (default 2).
+ * <p>
+ * Once the fixpoint is found, narrowing sweeps over all quads in order
+ * recompute the values from their neighbours, narrowing the old value at
+ * loop heads instead of replacing it, until nothing changes or
+ * flow.narrowing.rounds (default 2) sweeps are done.
+ */
+public final class Widening {
+  public static final int DELAY = Integer.getInteger("flow.widening.delay", 2);
+  public static final int NARROWING_ROUNDS = Integer.getInteger("flow.narrowing.rounds", 2);
+
+  private final boolean[] heads;
+  // the values each loop head got so far
+  private final int[] meets;
+
+  private Widening(boolean[] heads) {
+    this.heads = heads;
+    meets = new int[heads.length];
+  }
+
+  /**
+   * Returns the widening for analysis on the cfg of index, or null if the
+   * values of analysis aren't Flow.WideningObjects. Must be called after
+   * preprocess.
+   */
+  static Widening of(Flow.Analysis analysis, SolverMetrics metrics, CfgIndex index) {
+    return of(analysis, metrics, loopHeads(index, analysis.isForward()));
+  }
+
+  /**
+   * Same as of(analysis, metrics, index), with the given loop heads by ordinal.
+   */
+  static Widening of(Flow.Analysis analysis, SolverMetrics metrics, boolean[] heads) {
+    ++metrics.temps;
+    if (!(analysis.newTempVar() instanceof Flow.WideningObject)) {
+      return null;
+    }
+    return new Widening(heads);
+  }
+
+  /**
+   * Throws an IllegalArgumentException if the values of analysis are
+   * Flow.WideningObjects, for the solvers which don't widen and so might
+   * not terminate on them. Must be called after preprocess.
+   */
+  static void reject(Flow.Solver solver, Flow.Analysis analysis, SolverMetrics metrics) {
+    ++metrics.temps;
+    if (analysis.newTempVar() instanceof Flow.WideningObject) {
+      throw new IllegalArgumentException(solver.getClass().getName() + " can't solve "
+          + analysis.getClass().getName() + ", whose values need widening");
+    }
+  }
+
+  private static boolean[] loopHeads(CfgIndex index, boolean forward) {
+    int n = index.size();
+    boolean[] heads = new boolean[n];
+    int[] from = forward ? index.preds : index.succs, fromStart = forward ? index.predStart : index.succStart;
+    for (int i = 0; i < n; ++i) {
+      for (int k = fromStart[i]; k < fromStart[i + 1]; ++k) {
+        int j = from[k];
+        if (j != CfgIndex.ENTRY_EXIT && (forward ? j >= i : j <= i)) {
+          heads[i] = true;
+        }
+      }
+    }
+    return heads;
+  }
+
+  /**
+   * Returns the new IN (forward) or OUT (backward) of quad i, whose old
+   * value is old and whose neighbours met to met: met itself, or old
+   * widened with met at a loop head past the delay.
+   */
+  DataflowObject widen(Flow.Analysis analysis, SolverMetrics metrics, int i, DataflowObject old,
+                       DataflowObject met) {
+    if (!heads[i] || ++meets[i] <= DELAY) {
+      return met;
+    }
+    Flow.WideningObject ret = (Flow.WideningObject) analysis.newTempVar();
+    ++metrics.temps;
+    ret.copy(old);
+    ++metrics.copies;
+    ret.widenWith(met);
+    return ret;
+  }
+
+  /**
+   * Runs the narrowing sweeps over the quads of index, with `boundary` as the
+   * value of the entry (forward) or exit (backward), and returns their number.
+   */
+  int narrow(Flow.Analysis analysis, SolverMetrics metrics, CfgIndex index, DataflowObject boundary) {
+    int n = index.size();
+    boolean forward = analysis.isForward();
+    boolean changed = true;
+    int rounds = 0;
+    while (rounds < NARROWING_ROUNDS && changed) {
+      changed = false;
+      ++rounds;
+      for (int k = 0; k < n; ++k) {
+        int i = forward ? k : n - 1 - k;
+        Quad q = index.quad(i);
+        DataflowObject met = forward ? Meets.preds(analysis, metrics, index, i, boundary)
+            : Meets.succs(analysis, metrics, index, i, boundary);
+        if (heads[i]) {
+          Flow.WideningObject v = (Flow.WideningObject) analysis.newTempVar();
+          ++metrics.temps;
+          v.copy(forward ? analysis.getIn(q) : analysis.getOut(q));
+          ++metrics.copies;
+          v.narrowWith(met);
+          met = v;
+        }
+        if (forward) {
+          analysis.setIn(q, met);
+          DataflowObject oldOut = analysis.getOut(q);
+          analysis.processQuad(q);
+          ++metrics.transfers;
+          changed |= !oldOut.equals(analysis.getOut(q));
+        } else {
+          analysis.setOut(q, met);
+          DataflowObject oldIn = analysis.getIn(q);
+          analysis.processQuad(q);
+          ++metrics.transfers;
+          changed |= !oldIn.equals(analysis.getIn(q));
+        }
+      }
+    }
+    return rounds;
+  }
+}
@@ -0,0 +1,108 @@
+package flow;
+
+import joeq.Compiler.Quad.*;
+import flow.Flow.DataflowObject;
+
+import java.util.*;
+
+/**
+ * Worklist implementation of the Flow.Solver interface.
+ * <p>
+ * Every quad is processed once, after that a quad is only processed again
+ * when the value flowing into it may have changed, i.e. when the OUT (forward)
+ * or IN (backward) of one of its predecessors (forward) or successors (backward) changed.
+ * Values which are Flow.WideningObjects are widened at loop heads, see Widening.
+ */
+public class WorklistSolver implements Flow.Solver {
+
+  private Flow.Analysis analysis;
+  private SolverMetrics metrics;
+
+  public void registerAnalysis(Flow.Analysis analyzer) {
+    this.analysis = analyzer;
+  }
+
+  public void visitCFG(ControlFlowGraph cfg) {
+    metrics = SolverMetrics.begin(this, analysis, cfg);
+    // this needs to come first.
+    analysis.preprocess(cfg);
+
+    CfgIndex index = CfgIndex.of(cfg);
+    int n = index.size();
+    Widening widening = Widening.of(analysis, metrics, index);
+
+    // seed with all quads, in reverse postorder (forward) or postorder (backward)
+    IntQueue worklist = new IntQueue(n);
+    boolean[] queued = new boolean[n];
+    int[] visits = new int[n];
+    for (int i = 0; i < n; ++i) {
+      worklist.add(analysis.isForward() ? i : n - 1 - i);
+      queued[i] = true;
+    }
+
+    if (analysis.isForward()) {
+      DataflowObject entry = analysis.getEntry();
+      while (!worklist.isEmpty()) {
+        int i = worklist.remove();
+        queued[i] = false;
+        metrics.visited(++visits[i]);
+        Quad q = index.quad(i);
+        DataflowObject newIn = Meets.preds(analysis, metrics, index, i, entry);
+        if (widening != null) {
+          newIn = widening.widen(analysis, metrics, i, analysis.getIn(q), newIn);
+        }
+        analysis.setIn(q, newIn);
+        DataflowObject oldOut = analysis.getOut(q);
+        analysis.processQuad(q);
+        ++metrics.transfers;
+        if (!oldOut.equals(analysis.getOut(q))) {
+          enqueue(worklist, queued, index.succs, index.succStart[i], index.succStart[i + 1]);
+        }
+      }
+      if (widening != null) {
+        widening.narrow(analysis, metrics, index, entry);
+      }
+      analysis.setExit(Meets.exits(analysis, metrics, index));
+    } else {
+      DataflowObject exit = analysis.getExit();
+      while (!worklist.isEmpty()) {
+        int i = worklist.remove();
+        queued[i] = false;
+        metrics.visited(++visits[i]);
+        Quad q = index.quad(i);
+        DataflowObject newOut = Meets.succs(analysis, metrics, index, i, exit);
+        if (widening != null) {
+          newOut = widening.widen(analysis, metrics, i, analysis.getOut(q), newOut);
+        }
+        analysis.setOut(q, newOut);
+        DataflowObject oldIn = analysis.getIn(q);
+        analysis.processQuad(q);
+        ++metrics.transfers;
+        if (!oldIn.equals(analysis.getIn(q))) {
+          enqueue(worklist, queued, index.preds, index.predStart[i], index.predStart[i + 1]);
+        }
+      }
+      if (widening != null) {
+        widening.narrow(analysis, metrics, index, exit);
+      }
+      if (n > 0) {
+        analysis.setEntry(analysis.getIn(index.quad(0)));
+      }
+    }
+
+    // this needs to come last.
+    analysis.postprocess(cfg);
+    metrics.end();
+  }
+
+  // ENTRY_EXIT stands for the entry/exit of the cfg, which is never processed
+  static void enqueue(IntQueue worklist, boolean[] queued, int[] adj, int from, int to) {
+    for (int k = from; k < to; ++k) {
+      int j = adj[k];
+      if (j != CfgIndex.ENTRY_EXIT && !queued[j]) {
+        queued[j] = true;
+        worklist.add(j);
+      }
+    }
+  }
+}
@@ -0,0 +1,277 @@
+package flow;
+
+import joeq.Compiler.Quad.*;
+import flow.Flow.DataflowObject;
+
+import java.util.*;
+
+/**
+ * Implementation of the Flow.Solver interface which follows a weak
+ * topological ordering of the quads (Bourdoncle, "Efficient chaotic
+ * iteration strategies with widenings").
+ * <p>
+ * The ordering is built by decomposing the graph into strongly connected
+ * components in topological order, in the direction of the analysis. Every
+ * component with a cycle gets a head, the quad of it which comes first in
+ * that direction, and its other quads are decomposed the same way without
+ * the edges into the head, so nested loops become nested components, e.g.
+ * "0 1 (2 3 (4 5) 6) 7".
+ * <p>
+ * Quads outside of any component are processed once. A component is
+ * stabilized before whatever follows it: its head is processed, then its
+ * body (stabilizing the nested components), again and again until the value
+ * flowing into the head doesn't change any more. A loop which settles after
+ * two iterations thus costs two passes over that loop only, however large
+ * the method around it is. The heads are also where Flow.WideningObjects
+ * are widened, see Widening.
+ * <p>
+ * metrics.rounds is the largest number of times one quad was processed.
+ */
+public class WtoSolver implements Flow.Solver {
+
+  private Flow.Analysis analysis;
+  private SolverMetrics metrics;
+
+  private CfgIndex index;
+  private boolean forward;
+  private Widening widening;
+  private DataflowObject boundary;
+  // the ordering: the quad at every position, and for the head of a
+  // component the position after its last quad, -1 for other positions
+  private int[] order, end;
+  private int size;
+  // whether a quad was processed, and how often
+  private boolean[] done;
+  private int[] visits;
+
+  // scratch space of the decomposition: the component each quad is in, and Tarjan's numbering
+  private int[] scope, number, low;
+  private boolean[] onStack;
+  private int scopes, counter;
+
+  public void registerAnalysis(Flow.Analysis analyzer) {
+    this.analysis = analyzer;
+  }
+
+  public void visitCFG(ControlFlowGraph cfg) {
+    metrics = SolverMetrics.begin(this, analysis, cfg);
+    // this needs to come first.
+    analysis.preprocess(cfg);
+
+    index = CfgIndex.of(cfg);
+    forward = analysis.isForward();
+    int n = index.size();
+    build(n);
+    boolean[] heads = new boolean[n];
+    for (int p = 0; p < n; ++p) {
+      if (end[p] >= 0) {
+        heads[order[p]] = true;
+      }
+    }
+    widening = Widening.of(analysis, metrics, heads);
+    boundary = forward ? analysis.getEntry() : analysis.getExit();
+    done = new boolean[n];
+    visits = new int[n];
+
+    iterate(0, n);
+    if (widening != null) {
+      widening.narrow(analysis, metrics, index, boundary);
+    }
+
+    if (forward) {
+      analysis.setExit(Meets.exits(analysis, metrics, index));
+    } else if (n > 0) {
+      analysis.setEntry(analysis.getIn(index.quad(0)));
+    }
+
+    // this needs to come last.
+    analysis.postprocess(cfg);
+    metrics.end();
+  }
+
+  // processes the positions from .. to - 1 in order, stabilizing every component
+  private void iterate(int from, int to) {
+    int p = from;
+    while (p < to) {
+      if (end[p] < 0) {
+        update(order[p]);
+        ++p;
+        continue;
+      }
+      int head = order[p];
+      update(head);
+      do {
+        iterate(p + 1, end[p]);
+      } while (update(head));
+      p = end[p];
+    }
+  }
+
+  /**
+   * Meets the values flowing into quad i and runs its transfer function,
+   * unless it was processed before and what flows into it didn't change.
+   * Returns whether it was run.
+   */
+  private boolean update(int i) {
+    Quad q = index.quad(i);
+    DataflowObject old = forward ? analysis.getIn(q) : analysis.getOut(q);
+    DataflowObject met = forward ? Meets.preds(analysis, metrics, index, i, boundary)
+        : Meets.succs(analysis, metrics, index, i, boundary);
+    if (widening != null) {
+      met = widening.widen(analysis, metrics, i, old, met);
+    }
+    if (done[i] && met.equals(old)) {
+      return false;
+    }
+    done[i] = true;
+    metrics.visited(++visits[i]);
+    if (forward) {
+      analysis.setIn(q, met);
+    } else {
+      analysis.setOut(q, met);
+    }
+    analysis.processQuad(q);
+    ++metrics.transfers;
+    return true;
+  }
+
+  // builds the ordering of all n quads
+  private void build(int n) {
+    order = new int[n];
+    end = new int[n];
+    size = 0;
+    scope = new int[n];
+    number = new int[n];
+    low = new int[n];
+    onStack = new boolean[n];
+    scopes = 0;
+    counter = 0;
+    int[] all = new int[n];
+    for (int i = 0; i < n; ++i) {
+      all[i] = forward ? i : n - 1 - i;
+    }
+    decompose(all);
+    scope = number = low = null;
+    onStack = null;
+  }
+
+  /**
+   * Appends the ordering of the subgraph of the given quads to order. The
+   * quads are given in the order the search should start from them, which
+   * makes the ordering follow the CfgIndex order where there is a choice.
+   * Recurses once per level of nesting.
+   */
+  private void decompose(int[] vertices) {
+    int tag = ++scopes;
+    for (int v : vertices) {
+      scope[v] = tag;
+      number[v] = -1;
+    }
+    for (int[] component : components(vertices, tag)) {
+      int head = component[0];
+      int p = size++;
+      order[p] = head;
+      end[p] = -1;
+      if (component.length == 1 && !hasSelfLoop(head)) {
+        continue;
+      }
+      // the head comes first in the direction of the analysis
+      for (int v : component) {
+        if (forward ? v < head : v > head) {
+          head = v;
+        }
+      }
+      order[p] = head;
+      int[] body = new int[component.length - 1];
+      int k = 0;
+      for (int v : sorted(component)) {
+        if (v != head) {
+          body[k++] = v;
+        }
+      }
+      decompose(body);
+      end[p] = size;
+    }
+  }
+
+  private int[] sorted(int[] component) {
+    int[] ret = component.clone();
+    Arrays.sort(ret);
+    if (!forward) {
+      for (int i = 0, j = ret.length - 1; i < j; ++i, --j) {
+        int t = ret[i];
+        ret[i] = ret[j];
+        ret[j] = t;
+      }
+    }
+    return ret;
+  }
+
+  private boolean hasSelfLoop(int v) {
+    int[] adj = forward ? index.succs : index.preds, start = forward ? index.succStart : index.predStart;
+    for (int k = start[v]; k < start[v + 1]; ++k) {
+      if (adj[k] == v) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the strongly connected components of the quads in scope tag, in
+   * topological order, found by Tarjan's algorithm with an explicit stack.
+   */
+  private List<int[]> components(int[] vertices, int tag) {
+    int[] adj = forward ? index.succs : index.preds, start = forward ? index.succStart : index.predStart;
+    ArrayList<int[]> ret = new ArrayList<int[]>();
+    int[] stack = new int[vertices.length], calls = new int[vertices.length], next = new int[vertices.length];
+    int top = 0, depth = 0;
+    for (int root : vertices) {
+      if (number[root] >= 0) {
+        continue;
+      }
+      number[root] = low[root] = counter++;
+      stack[top++] = root;
+      onStack[root] = true;
+      calls[depth] = root;
+      next[depth++] = start[root];
+      while (depth > 0) {
+        int v = calls[depth - 1];
+        if (next[depth - 1] < start[v + 1]) {
+          int w = adj[next[depth - 1]++];
+          if (w == CfgIndex.ENTRY_EXIT || scope[w] != tag) {
+            continue;
+          }
+          if (number[w] < 0) {
+            number[w] = low[w] = counter++;
+            stack[top++] = w;
+            onStack[w] = true;
+            calls[depth] = w;
+            next[depth++] = start[w];
+          } else if (onStack[w]) {
+            low[v] = Math.min(low[v], number[w]);
+          }
+          continue;
+        }
+        --depth;
+        if (depth > 0) {
+          int u = calls[depth - 1];
+          low[u] = Math.min(low[u], low[v]);
+        }
+        if (low[v] == number[v]) {
+          int from = top;
+          do {
+            onStack[stack[--from]] = false;
+          } while (stack[from] != v);
+          int[] component = new int[top - from];
+          System.arraycopy(stack, from, component, 0, component.length);
+          top = from;
+          ret.add(component);
+        }
+      }
+    }
+    // Tarjan finds every component after the ones it reaches
+    Collections.reverse(ret);
+    return ret;
+  }
+}
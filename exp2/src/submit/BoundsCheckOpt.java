@@ -0,0 +1,729 @@
+package submit;
+
+import flow.DominatorTree;
+import flow.Flow;
+import flow.Flow.DataflowObject;
+import flow.RegisterTable;
+import flow.Widening;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.IConstOperand;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+
+import java.util.*;
+
+/**
+ * Removes the BOUNDS_CHECKs whose index is known to be within the bounds of
+ * the array, using an interval analysis of the int registers.
+ * <p>
+ * Every register has a range of values; for an array register it is the
+ * range of its length. Besides the ranges, facts "r &lt;= length of a + d"
+ * relate int registers to the length of arrays, so the counter of
+ * "for (i = 0; i &lt; a.length; ++i)", or of a loop up to the size an array
+ * was created with, is known to be a valid index even though nothing is
+ * known about the length itself. The facts come from ARRAYLENGTH, NEWARRAY,
+ * moves, adding constants, IFCMP_I and the BOUNDS_CHECKs which passed.
+ * <p>
+ * The analysis runs over basic blocks with a solver of its own, so an
+ * IFCMP_I narrows the registers it compares differently on its two edges,
+ * which a Flow.Solver can't do. Loops are handled like in flow.Widening, at
+ * the targets of edges going backwards in reverse postorder and with the
+ * same delay and narrowing rounds: a bound which still grows goes to the end
+ * of the int range and a fact which still gets weaker is dropped, then the
+ * narrowing rounds bring back the bounds the loop conditions guarantee.
+ * <p>
+ * Arithmetic wraps around in Java, so a computation which may overflow gets
+ * the full int range and no facts.
+ */
+public class BoundsCheckOpt implements ControlFlowGraphVisitor {
+  private static final long MIN = Integer.MIN_VALUE, MAX = Integer.MAX_VALUE;
+
+  public static class Ranges implements Flow.WideningObject {
+    // false for code which isn't reached, the top value
+    private boolean reached;
+    private int[] lo, hi;
+    // r * size + a -> d for the facts "r <= length of a + d"
+    private TreeMap<Long, Integer> below = new TreeMap<Long, Integer>();
+    private RegisterTable table;
+    private int size;
+
+    Ranges(RegisterTable table) {
+      this.table = table;
+      size = table.size();
+      lo = new int[size];
+      hi = new int[size];
+    }
+
+    public void setToTop() {
+      reached = false;
+      below.clear();
+    }
+
+    /**
+     * Nothing is known about any register.
+     */
+    public void setToBottom() {
+      reached = true;
+      Arrays.fill(lo, Integer.MIN_VALUE);
+      Arrays.fill(hi, Integer.MAX_VALUE);
+      below.clear();
+    }
+
+    public void meetWith(DataflowObject o) {
+      Ranges a = (Ranges) o;
+      if (!a.reached) {
+        return;
+      }
+      if (!reached) {
+        copy(a);
+        return;
+      }
+      for (int r = 0; r < size; ++r) {
+        lo[r] = Math.min(lo[r], a.lo[r]);
+        hi[r] = Math.max(hi[r], a.hi[r]);
+      }
+      for (Iterator<Map.Entry<Long, Integer>> it = below.entrySet().iterator(); it.hasNext(); ) {
+        Map.Entry<Long, Integer> e = it.next();
+        Integer d = a.below.get(e.getKey());
+        if (d == null) {
+          it.remove();
+        } else if (d > e.getValue()) {
+          e.setValue(d);
+        }
+      }
+    }
+
+    public void copy(DataflowObject o) {
+      Ranges a = (Ranges) o;
+      reached = a.reached;
+      System.arraycopy(a.lo, 0, lo, 0, size);
+      System.arraycopy(a.hi, 0, hi, 0, size);
+      below = new TreeMap<Long, Integer>(a.below);
+    }
+
+    /**
+     * Bounds which moved go to the end of the int range, and facts which got
+     * weaker are dropped.
+     */
+    public void widenWith(DataflowObject o) {
+      Ranges a = (Ranges) o;
+      if (!reached) {
+        copy(a);
+        return;
+      }
+      for (int r = 0; r < size; ++r) {
+        if (a.lo[r] < lo[r]) {
+          lo[r] = Integer.MIN_VALUE;
+        }
+        if (a.hi[r] > hi[r]) {
+          hi[r] = Integer.MAX_VALUE;
+        }
+      }
+      for (Iterator<Map.Entry<Long, Integer>> it = below.entrySet().iterator(); it.hasNext(); ) {
+        Map.Entry<Long, Integer> e = it.next();
+        Integer d = a.below.get(e.getKey());
+        if (d == null || d > e.getValue()) {
+          it.remove();
+        }
+      }
+    }
+
+    /**
+     * Only the bounds at the end of the int range and the missing facts are
+     * taken from o.
+     */
+    public void narrowWith(DataflowObject o) {
+      Ranges a = (Ranges) o;
+      if (!a.reached) {
+        setToTop();
+        return;
+      }
+      if (!reached) {
+        return;
+      }
+      for (int r = 0; r < size; ++r) {
+        if (lo[r] == Integer.MIN_VALUE) {
+          lo[r] = a.lo[r];
+        }
+        if (hi[r] == Integer.MAX_VALUE) {
+          hi[r] = a.hi[r];
+        }
+      }
+      for (Map.Entry<Long, Integer> e : a.below.entrySet()) {
+        if (!below.containsKey(e.getKey())) {
+          below.put(e.getKey(), e.getValue());
+        }
+      }
+    }
+
+    private long key(int r, int a) {
+      return (long) r * size + a;
+    }
+
+    // sets the range of r, or the full int range if it doesn't fit
+    private void set(int r, long l, long h) {
+      if (l < MIN || h > MAX) {
+        l = MIN;
+        h = MAX;
+      }
+      lo[r] = (int) l;
+      hi[r] = (int) h;
+    }
+
+    // the facts about r, as a -> d
+    private SortedMap<Long, Integer> factsOf(int r) {
+      return below.subMap(key(r, 0), key(r + 1, 0));
+    }
+
+    private Integer fact(int r, int a) {
+      return below.get(key(r, a));
+    }
+
+    private void addFact(int r, int a, long d) {
+      if (d < MIN || d > MAX) {
+        return;
+      }
+      Integer old = below.get(key(r, a));
+      if (old == null || d < old) {
+        below.put(key(r, a), (int) d);
+      }
+    }
+
+    // forgets everything about r, before it is defined
+    private void kill(int r) {
+      factsOf(r).clear();
+      for (Iterator<Long> it = below.keySet().iterator(); it.hasNext(); ) {
+        if (it.next() % size == r) {
+          it.remove();
+        }
+      }
+      lo[r] = Integer.MIN_VALUE;
+      hi[r] = Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Ranges)) {
+        return false;
+      }
+      Ranges a = (Ranges) o;
+      if (reached != a.reached) {
+        return false;
+      }
+      return !reached || Arrays.equals(lo, a.lo) && Arrays.equals(hi, a.hi) && below.equals(a.below);
+    }
+
+    @Override
+    public int hashCode() {
+      return reached ? Arrays.hashCode(lo) ^ Arrays.hashCode(hi) ^ below.hashCode() : 0;
+    }
+
+    @Override
+    public String toString() {
+      if (!reached) {
+        return "unreached";
+      }
+      StringBuilder sb = new StringBuilder("[");
+      for (int r = 0; r < size; ++r) {
+        if (lo[r] != Integer.MIN_VALUE || hi[r] != Integer.MAX_VALUE) {
+          sb.append(sb.length() > 1 ? ", " : "").append(table.nameOf(r)).append(": ").append(lo[r]).append("..")
+              .append(hi[r]);
+        }
+      }
+      for (Map.Entry<Long, Integer> e : below.entrySet()) {
+        int r = (int) (e.getKey() / size), a = (int) (e.getKey() % size);
+        sb.append(sb.length() > 1 ? ", " : "").append(table.nameOf(r)).append(" <= len(").append(table.nameOf(a))
+            .append(")").append(e.getValue() < 0 ? " - " : " + ").append(Math.abs((long) e.getValue()));
+      }
+      return sb.append("]").toString();
+    }
+  }
+
+  private TreeSet<Integer> redundant = new TreeSet<Integer>();
+  private int changes;
+
+  private RegisterTable table;
+  private DominatorTree dom;
+  // the value at the start and the end of every block, and the meet of the
+  // values inside of it, which its exception handlers see
+  private Ranges[] in, out, handlerOut;
+  // handler block number -> the numbers of the blocks it protects
+  private ArrayList<List<Integer>> protectedBy;
+
+  public BoundsCheckOpt() {
+  }
+
+  /**
+   * Makes transfer work on the Ranges of the registers of table without a
+   * run of find, see RangeAnalysis.
+   */
+  BoundsCheckOpt(RegisterTable table) {
+    this.table = table;
+  }
+
+  public void visitCFG(ControlFlowGraph cfg) {
+    find(cfg);
+    changes = NullCheckOpt.removeQuads(cfg, redundant);
+  }
+
+  /**
+   * Returns the number of BOUNDS_CHECKs removed by the last run.
+   */
+  public int getChanges() {
+    return changes;
+  }
+
+  /**
+   * Finds the BOUNDS_CHECKs of cfg which can't fail, without changing it,
+   * and returns their ids.
+   */
+  public Set<Integer> find(ControlFlowGraph cfg) {
+    redundant.clear();
+    dom = DominatorTree.of(cfg);
+    table = new RegisterTable(cfg);
+    int n = dom.size();
+    in = new Ranges[n];
+    out = new Ranges[n];
+    handlerOut = new Ranges[n];
+    protectedBy = new ArrayList<List<Integer>>(n);
+    for (int i = 0; i < n; ++i) {
+      protectedBy.add(new ArrayList<Integer>());
+    }
+    // the loop heads, i.e. the targets of edges going backwards in reverse postorder
+    boolean[] head = new boolean[n];
+    for (int i = 0; i < n; ++i) {
+      in[i] = new Ranges(table);
+      out[i] = new Ranges(table);
+      handlerOut[i] = new Ranges(table);
+      BasicBlock b = dom.block(i);
+      for (BasicBlock s : b.getSuccessors()) {
+        int j = dom.number(s);
+        if (j >= 0 && j <= i) {
+          head[j] = true;
+        }
+      }
+      for (BasicBlock h : b.getExceptionHandlerEntries()) {
+        int j = dom.number(h);
+        protectedBy.get(j).add(i);
+        if (j <= i) {
+          head[j] = true;
+        }
+      }
+    }
+
+    // blocks are taken in reverse postorder, so a loop is done before what follows it
+    int[] joins = new int[n];
+    BitSet pending = new BitSet(n);
+    if (n > 0) {
+      pending.set(0);
+    }
+    for (int i = pending.nextSetBit(0); i >= 0; i = pending.nextSetBit(0)) {
+      pending.clear(i);
+      Ranges v = join(i);
+      if (head[i] && ++joins[i] > Widening.DELAY) {
+        Ranges w = new Ranges(table);
+        w.copy(in[i]);
+        w.widenWith(v);
+        v = w;
+      }
+      if (v.equals(in[i])) {
+        continue;
+      }
+      in[i] = v;
+      run(i);
+      BasicBlock b = dom.block(i);
+      for (BasicBlock s : b.getSuccessors()) {
+        setNumber(pending, s);
+      }
+      for (BasicBlock h : b.getExceptionHandlerEntries()) {
+        setNumber(pending, h);
+      }
+    }
+
+    for (int round = 0; round < Widening.NARROWING_ROUNDS; ++round) {
+      for (int i = 0; i < n; ++i) {
+        if (!in[i].reached) {
+          continue;
+        }
+        Ranges v = join(i);
+        if (head[i]) {
+          in[i].narrowWith(v);
+        } else {
+          in[i] = v;
+        }
+        run(i);
+      }
+    }
+
+    for (int i = 0; i < n; ++i) {
+      Ranges v = new Ranges(table);
+      v.copy(in[i]);
+      for (ListIterator<Quad> it = dom.block(i).iterator(); it.hasNext() && v.reached; ) {
+        Quad q = it.next();
+        if (q.getOperator() instanceof Operator.BoundsCheck && isSafe(v, q)) {
+          redundant.add(q.getID());
+        }
+        transfer(q, v);
+      }
+    }
+    return Collections.unmodifiableSet(redundant);
+  }
+
+  private void setNumber(BitSet set, BasicBlock b) {
+    int j = dom.number(b);
+    if (j >= 0) {
+      set.set(j);
+    }
+  }
+
+  // the meet of the values coming into block i
+  private Ranges join(int i) {
+    Ranges v = new Ranges(table);
+    BasicBlock b = dom.block(i);
+    if (i == 0) {
+      v.setToBottom();
+    }
+    for (BasicBlock p : b.getPredecessors()) {
+      int j = dom.number(p);
+      if (j < 0 || !out[j].reached) {
+        continue;
+      }
+      Quad last = p.getLastQuad();
+      if (last != null && last.getOperator() instanceof Operator.IntIfCmp.IFCMP_I) {
+        BasicBlock target = Operator.IntIfCmp.getTarget(last).getTarget();
+        if (target != p.getFallthroughSuccessor()) {
+          Ranges e = new Ranges(table);
+          e.copy(out[j]);
+          refine(e, last, b == target);
+          v.meetWith(e);
+          continue;
+        }
+      }
+      v.meetWith(out[j]);
+    }
+    for (int j : protectedBy.get(i)) {
+      v.meetWith(handlerOut[j]);
+    }
+    return v;
+  }
+
+  // computes the values at the end of block i and inside of it from its start
+  private void run(int i) {
+    BasicBlock b = dom.block(i);
+    Ranges v = new Ranges(table);
+    v.copy(in[i]);
+    Ranges h = new Ranges(table);
+    boolean handlers = !b.getExceptionHandlerEntries().isEmpty();
+    for (ListIterator<Quad> it = b.iterator(); it.hasNext(); ) {
+      // a quad may throw before it defines anything
+      if (handlers) {
+        h.meetWith(v);
+      }
+      transfer(it.next(), v);
+    }
+    out[i] = v;
+    handlerOut[i] = h;
+  }
+
+  /**
+   * Returns true if the BOUNDS_CHECK q can't fail with the value v before it.
+   */
+  private boolean isSafe(Ranges v, Quad q) {
+    int a = reg(Operator.BoundsCheck.getRef(q));
+    Operand index = Operator.BoundsCheck.getIndex(q);
+    if (a < 0 || lo(v, index) < 0) {
+      return false;
+    }
+    if (hi(v, index) < Math.max(v.lo[a], 0)) {
+      return true;
+    }
+    int i = reg(index);
+    if (i < 0) {
+      return false;
+    }
+    Integer d = v.fact(i, a);
+    return d != null && d < 0;
+  }
+
+  /**
+   * Applies the quad q to v in place.
+   */
+  void transfer(Quad q, Ranges v) {
+    if (!v.reached) {
+      return;
+    }
+    Operator op = q.getOperator();
+    if (op instanceof Operator.BoundsCheck) {
+      passed(v, q);
+      return;
+    }
+    List<RegisterOperand> defs = q.getDefinedRegisters();
+    if (defs.isEmpty()) {
+      return;
+    }
+    int d = table.indexOf(defs.get(0).getRegister());
+    if (op instanceof Operator.Move) {
+      move(v, d, Operator.Move.getSrc(q));
+    } else if (op instanceof Operator.ALength) {
+      int a = reg(Operator.ALength.getSrc(q));
+      v.kill(d);
+      if (a >= 0) {
+        v.set(d, Math.max(v.lo[a], 0), Math.max(v.hi[a], 0));
+        v.addFact(d, a, 0);
+      } else {
+        v.set(d, 0, MAX);
+      }
+    } else if (op instanceof Operator.NewArray) {
+      Operand size = Operator.NewArray.getSize(q);
+      long l = Math.max(lo(v, size), 0), h = Math.max(hi(v, size), 0);
+      int s = reg(size);
+      v.kill(d);
+      v.set(d, l, h);
+      if (s >= 0 && s != d) {
+        v.addFact(s, d, 0);
+      }
+    } else if (op instanceof Operator.Binary) {
+      binary(v, q, d);
+    } else if (op instanceof Operator.Unary) {
+      unary(v, q, d);
+    } else {
+      for (RegisterOperand def : defs) {
+        v.kill(table.indexOf(def.getRegister()));
+      }
+    }
+  }
+
+  private void move(Ranges v, int d, Operand src) {
+    int s = reg(src);
+    if (s == d) {
+      return;
+    }
+    long l = lo(v, src), h = hi(v, src);
+    // d gets the facts of s, both as an index and as an array
+    TreeMap<Integer, Integer> asIndex = new TreeMap<Integer, Integer>(), asArray = new TreeMap<Integer, Integer>();
+    if (s >= 0) {
+      for (Map.Entry<Long, Integer> e : v.factsOf(s).entrySet()) {
+        asIndex.put((int) (e.getKey() % v.size), e.getValue());
+      }
+      for (Map.Entry<Long, Integer> e : v.below.entrySet()) {
+        if (e.getKey() % v.size == s) {
+          asArray.put((int) (e.getKey() / v.size), e.getValue());
+        }
+      }
+    }
+    v.kill(d);
+    v.set(d, l, h);
+    for (Map.Entry<Integer, Integer> e : asIndex.entrySet()) {
+      if (e.getKey() != d) {
+        v.addFact(d, e.getKey(), e.getValue());
+      }
+    }
+    for (Map.Entry<Integer, Integer> e : asArray.entrySet()) {
+      if (e.getKey() != d) {
+        v.addFact(e.getKey(), d, e.getValue());
+      }
+    }
+  }
+
+  private void binary(Ranges v, Quad q, int d) {
+    Operator op = q.getOperator();
+    Operand x = Operator.Binary.getSrc1(q), y = Operator.Binary.getSrc2(q);
+    long lx = lo(v, x), hx = hi(v, x), ly = lo(v, y), hy = hi(v, y);
+    long l = MIN, h = MAX;
+    // the register whose facts d keeps, shifted by c
+    int s = -1;
+    long c = 0;
+    if (op == Operator.Binary.ADD_I.INSTANCE) {
+      l = lx + ly;
+      h = hx + hy;
+      if (ly == hy) {
+        s = reg(x);
+        c = ly;
+      } else if (lx == hx) {
+        s = reg(y);
+        c = lx;
+      }
+    } else if (op == Operator.Binary.SUB_I.INSTANCE) {
+      l = lx - hy;
+      h = hx - ly;
+      if (ly == hy) {
+        s = reg(x);
+        c = -ly;
+      }
+    } else if (op == Operator.Binary.MUL_I.INSTANCE) {
+      long[] p = {lx * ly, lx * hy, hx * ly, hx * hy};
+      l = Math.min(Math.min(p[0], p[1]), Math.min(p[2], p[3]));
+      h = Math.max(Math.max(p[0], p[1]), Math.max(p[2], p[3]));
+    } else if (op == Operator.Binary.DIV_I.INSTANCE && ly == hy && ly > 0) {
+      l = lx / ly;
+      h = hx / ly;
+      // a quotient of a non-negative value is at most the value
+      if (lx >= 0) {
+        s = reg(x);
+      }
+    } else if (op == Operator.Binary.REM_I.INSTANCE && ly == hy && ly != 0) {
+      long m = Math.abs(ly) - 1;
+      l = lx >= 0 ? 0 : Math.max(lx, -m);
+      h = hx <= 0 ? 0 : Math.min(hx, m);
+      if (lx >= 0) {
+        s = reg(x);
+      }
+    } else if (op == Operator.Binary.AND_I.INSTANCE && (lx >= 0 || ly >= 0)) {
+      l = 0;
+      h = lx >= 0 && ly >= 0 ? Math.min(hx, hy) : lx >= 0 ? hx : hy;
+    } else if (op == Operator.Binary.SHR_I.INSTANCE && ly == hy) {
+      l = lx >> (ly & 31);
+      h = hx >> (ly & 31);
+    } else if (op == Operator.Binary.USHR_I.INSTANCE && ly == hy && lx >= 0) {
+      l = lx >>> (ly & 31);
+      h = hx >>> (ly & 31);
+    }
+    // without an overflow d is s + c, or at most s
+    TreeMap<Long, Integer> facts = new TreeMap<Long, Integer>();
+    if (s >= 0 && l >= MIN && h <= MAX) {
+      facts.putAll(v.factsOf(s));
+    }
+    v.kill(d);
+    v.set(d, l, h);
+    for (Map.Entry<Long, Integer> e : facts.entrySet()) {
+      int a = (int) (e.getKey() % v.size);
+      if (a != d) {
+        v.addFact(d, a, e.getValue() + c);
+      }
+    }
+  }
+
+  private void unary(Ranges v, Quad q, int d) {
+    Operator op = q.getOperator();
+    Operand x = Operator.Unary.getSrc(q);
+    long l = MIN, h = MAX;
+    if (op == Operator.Unary.NEG_I.INSTANCE) {
+      l = -hi(v, x);
+      h = -lo(v, x);
+    } else if (op == Operator.Unary.INT_2BYTE.INSTANCE) {
+      l = Byte.MIN_VALUE;
+      h = Byte.MAX_VALUE;
+    } else if (op == Operator.Unary.INT_2CHAR.INSTANCE) {
+      l = Character.MIN_VALUE;
+      h = Character.MAX_VALUE;
+    } else if (op == Operator.Unary.INT_2SHORT.INSTANCE) {
+      l = Short.MIN_VALUE;
+      h = Short.MAX_VALUE;
+    }
+    v.kill(d);
+    v.set(d, l, h);
+  }
+
+  // what holds after the BOUNDS_CHECK q passed: 0 <= index < length of the array
+  private void passed(Ranges v, Quad q) {
+    int a = reg(Operator.BoundsCheck.getRef(q));
+    Operand index = Operator.BoundsCheck.getIndex(q);
+    int i = reg(index);
+    if (a < 0) {
+      return;
+    }
+    if (i >= 0) {
+      v.lo[i] = Math.max(v.lo[i], 0);
+      v.hi[i] = (int) Math.min(v.hi[i], v.hi[a] - 1L);
+      v.addFact(i, a, -1);
+    }
+    v.lo[a] = (int) Math.min(Math.max(v.lo[a], lo(v, index) + 1), MAX);
+    if (v.lo[a] > v.hi[a] || i >= 0 && v.lo[i] > v.hi[i]) {
+      // the check always fails
+      v.setToTop();
+    }
+  }
+
+  /**
+   * Narrows v to the values for which the IFCMP_I q goes to its target if
+   * taken is true, or falls through otherwise.
+   */
+  private void refine(Ranges v, Quad q, boolean taken) {
+    byte cond = Operator.IntIfCmp.getCond(q).getCondition();
+    Operand x = Operator.IntIfCmp.getSrc1(q), y = Operator.IntIfCmp.getSrc2(q);
+    // same encoding as joeq's BytecodeVisitor.CMP_*, the unsigned ones are left alone
+    switch (taken ? cond : cond ^ 1) {
+      case 0:
+        less(v, x, y, 0);
+        less(v, y, x, 0);
+        break;
+      case 1:
+        notEqual(v, x, y);
+        notEqual(v, y, x);
+        break;
+      case 2:
+        less(v, x, y, 1);
+        break;
+      case 3:
+        less(v, y, x, 0);
+        break;
+      case 4:
+        less(v, x, y, 0);
+        break;
+      case 5:
+        less(v, y, x, 1);
+        break;
+      default:
+        break;
+    }
+  }
+
+  // narrows v to x <= y - k
+  private void less(Ranges v, Operand x, Operand y, int k) {
+    if (!v.reached) {
+      return;
+    }
+    int rx = reg(x), ry = reg(y);
+    long lx = lo(v, x), hy = hi(v, y);
+    if (rx >= 0) {
+      v.hi[rx] = (int) Math.max(Math.min(v.hi[rx], hy - k), MIN);
+      if (ry >= 0 && ry != rx) {
+        for (Map.Entry<Long, Integer> e : new TreeMap<Long, Integer>(v.factsOf(ry)).entrySet()) {
+          v.addFact(rx, (int) (e.getKey() % v.size), (long) e.getValue() - k);
+        }
+      }
+    }
+    if (ry >= 0) {
+      v.lo[ry] = (int) Math.min(Math.max(v.lo[ry], lx + k), MAX);
+    }
+    if (lo(v, x) > hi(v, x) || lo(v, y) > hi(v, y) || lo(v, x) > hi(v, y) - k) {
+      // the edge is never taken
+      v.setToTop();
+    }
+  }
+
+  // narrows v to x != y where y is a single value, at the ends of the range of x
+  private void notEqual(Ranges v, Operand x, Operand y) {
+    int rx = reg(x);
+    if (!v.reached || rx < 0 || lo(v, y) != hi(v, y)) {
+      return;
+    }
+    long c = lo(v, y);
+    if (v.lo[rx] == c && c < MAX) {
+      ++v.lo[rx];
+    } else if (v.hi[rx] == c && c > MIN) {
+      --v.hi[rx];
+    }
+    if (v.lo[rx] > v.hi[rx]) {
+      v.setToTop();
+    }
+  }
+
+  // the id of a register operand, -1 for anything else
+  private int reg(Operand o) {
+    return o instanceof RegisterOperand ? table.indexOf(((RegisterOperand) o).getRegister()) : -1;
+  }
+
+  private static long lo(Ranges v, Operand o) {
+    if (o instanceof IConstOperand) {
+      return ((IConstOperand) o).getValue();
+    }
+    return o instanceof RegisterOperand ? v.lo[v.table.indexOf(((RegisterOperand) o).getRegister())] : MIN;
+  }
+
+  private static long hi(Ranges v, Operand o) {
+    if (o instanceof IConstOperand) {
+      return ((IConstOperand) o).getValue();
+    }
+    return o instanceof RegisterOperand ? v.hi[v.table.indexOf(((RegisterOperand) o).getRegister())] : MAX;
+  }
+}
@@ -0,0 +1,389 @@
+package submit;
+
+import flow.CfgIndex;
+import flow.DominatorTree;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.IConstOperand;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+
+import java.util.*;
+
+/**
+ * Partial redundancy elimination of NULL_CHECK and BOUNDS_CHECK quads by
+ * lazy code motion (Knoop, Ruething and Steffen, in the formulation of the
+ * Dragon Book, 9.5).
+ * <p>
+ * A check is identified by its operator and operands. It is placed as late
+ * as possible among the points where it is anticipated (executed on every
+ * path from there anyway) and not yet available, so a check of a loop
+ * invariant reference moves in front of the loop, and a check which is
+ * redundant on some paths into a block is only executed on the others.
+ * Checks which are available anyway are removed, including the ones
+ * repeated inside a block.
+ * <p>
+ * Moving a check must not change which exception is thrown, or whether
+ * side effects happen before it, so a check is never moved across a quad
+ * with side effects or exceptions (branches aside), across a check of the
+ * other kind, or across a definition of its operands. The analysis works on
+ * basic blocks and doesn't split edges: a check which would have to go on
+ * a critical edge is placed at the start of the block the edge enters
+ * instead, which is safe but may leave it redundant on another edge into
+ * that block.
+ */
+public class CheckMotionOpt implements ControlFlowGraphVisitor {
+  private static final int NULL = 0, BOUNDS = 1;
+
+  // number of checks inserted or removed by the last run
+  private int changes;
+
+  // the checks as "kind:ref:index", and a quad computing each of them
+  private HashMap<String, Integer> exprs = new HashMap<String, Integer>();
+  private ArrayList<Quad> representative = new ArrayList<Quad>();
+  private ArrayList<Integer> kinds = new ArrayList<Integer>();
+  // register name -> the checks using it
+  private HashMap<String, BitSet> usedBy = new HashMap<String, BitSet>();
+
+  public int getChanges() {
+    return changes;
+  }
+
+  public void visitCFG(ControlFlowGraph cfg) {
+    changes = 0;
+    exprs.clear();
+    representative.clear();
+    kinds.clear();
+    usedBy.clear();
+    DominatorTree dom = DominatorTree.of(cfg);
+    int n = dom.size();
+    for (int i = 0; i < n; ++i) {
+      for (ListIterator<Quad> it = dom.block(i).iterator(); it.hasNext(); ) {
+        intern(it.next());
+      }
+    }
+    int m = exprs.size();
+    if (m == 0) {
+      return;
+    }
+
+    // local properties: checks anticipated at the start of a block (antUse), checks
+    // which a block stops being anticipated across (antKill) or being available
+    // across (defKill), and the quads which are already available in their block
+    BitSet[] antUse = new BitSet[n], antKill = new BitSet[n], defKill = new BitSet[n];
+    HashSet<Quad> localRedundant = new HashSet<Quad>();
+    BitSet[] ofKind = {new BitSet(m), new BitSet(m)};
+    for (int e = 0; e < m; ++e) {
+      ofKind[kinds.get(e)].set(e);
+    }
+    for (int i = 0; i < n; ++i) {
+      antUse[i] = new BitSet(m);
+      antKill[i] = new BitSet(m);
+      defKill[i] = new BitSet(m);
+      BitSet avail = new BitSet(m);
+      for (ListIterator<Quad> it = dom.block(i).iterator(); it.hasNext(); ) {
+        Quad q = it.next();
+        int e = indexOf(q);
+        if (e >= 0) {
+          if (avail.get(e)) {
+            localRedundant.add(q);
+          } else if (!antKill[i].get(e)) {
+            antUse[i].set(e);
+          }
+          avail.set(e);
+        }
+        int kind = kindOf(q);
+        if (kind >= 0) {
+          antKill[i].or(ofKind[1 - kind]);
+        } else if (isBarrier(q)) {
+          antKill[i].set(0, m);
+        }
+        for (RegisterOperand def : q.getDefinedRegisters()) {
+          BitSet users = usedBy.get(def.getRegister().toString());
+          if (users != null) {
+            antKill[i].or(users);
+            defKill[i].or(users);
+            avail.andNot(users);
+          }
+        }
+      }
+    }
+
+    int[][] preds = new int[n][], succs = new int[n][];
+    for (int i = 0; i < n; ++i) {
+      preds[i] = numbers(dom, dom.block(i).getPredecessors());
+      succs[i] = numbers(dom, dom.block(i).getSuccessors());
+    }
+    // no check can be placed at the entry or exit, and handlers are entered
+    // from the middle of a block, so nothing flows into them. A check must stay
+    // under the same handlers, so nothing flows into a block from a
+    // predecessor with other handlers either, or back out of it.
+    boolean[] boundary = new boolean[n];
+    for (int i = 0; i < n; ++i) {
+      BasicBlock b = dom.block(i);
+      boundary[i] = b.isEntry() || b.isExit() || b.isExceptionHandlerEntry();
+      for (int p : preds[i]) {
+        boundary[i] |= !sameHandlers(b, dom.block(p));
+      }
+    }
+
+    // anticipated checks, backwards
+    BitSet[] antIn = new BitSet[n];
+    for (int i = 0; i < n; ++i) {
+      antIn[i] = new BitSet(m);
+      if (!dom.block(i).isEntry() && !dom.block(i).isExit()) {
+        antIn[i].set(0, m);
+      }
+    }
+    for (boolean changed = true; changed; ) {
+      changed = false;
+      for (int i = n - 1; i >= 0; --i) {
+        if (dom.block(i).isEntry() || dom.block(i).isExit()) {
+          continue;
+        }
+        BitSet v = meetAll(antIn, succs[i], m);
+        for (int s : succs[i]) {
+          if (!sameHandlers(dom.block(i), dom.block(s))) {
+            v.clear();
+          }
+        }
+        v.andNot(antKill[i]);
+        v.or(antUse[i]);
+        changed |= update(antIn, i, v);
+      }
+    }
+
+    // checks which are available, once placed as early as possible
+    BitSet[] availOut = new BitSet[n];
+    for (int i = 0; i < n; ++i) {
+      availOut[i] = new BitSet(m);
+      availOut[i].set(0, m);
+    }
+    BitSet[] availIn = new BitSet[n];
+    for (boolean changed = true; changed; ) {
+      changed = false;
+      for (int i = 0; i < n; ++i) {
+        availIn[i] = boundary[i] ? new BitSet(m) : meetAll(availOut, preds[i], m);
+        BitSet v = (BitSet) antIn[i].clone();
+        v.or(availIn[i]);
+        v.andNot(defKill[i]);
+        changed |= update(availOut, i, v);
+      }
+    }
+
+    BitSet[] earliest = new BitSet[n];
+    for (int i = 0; i < n; ++i) {
+      earliest[i] = (BitSet) antIn[i].clone();
+      earliest[i].andNot(availIn[i]);
+    }
+
+    // checks which may still be placed later, forwards
+    BitSet[] postOut = new BitSet[n];
+    for (int i = 0; i < n; ++i) {
+      postOut[i] = new BitSet(m);
+      postOut[i].set(0, m);
+    }
+    BitSet[] postIn = new BitSet[n];
+    for (boolean changed = true; changed; ) {
+      changed = false;
+      for (int i = 0; i < n; ++i) {
+        postIn[i] = boundary[i] ? new BitSet(m) : meetAll(postOut, preds[i], m);
+        BitSet v = (BitSet) earliest[i].clone();
+        v.or(postIn[i]);
+        v.andNot(antUse[i]);
+        // a check can't be postponed across a barrier of its own
+        v.andNot(antKill[i]);
+        changed |= update(postOut, i, v);
+      }
+    }
+
+    // the last point a check can be placed at: before its use, or where it can't be postponed to every successor
+    BitSet[] latest = new BitSet[n];
+    for (int i = 0; i < n; ++i) {
+      BitSet here = (BitSet) earliest[i].clone();
+      here.or(postIn[i]);
+      BitSet later = new BitSet(m);
+      later.set(0, m);
+      for (int s : succs[i]) {
+        BitSet t = (BitSet) earliest[s].clone();
+        t.or(postIn[s]);
+        later.and(t);
+      }
+      if (succs[i].length == 0) {
+        later.clear();
+      }
+      later.flip(0, m);
+      later.or(antUse[i]);
+      later.or(antKill[i]);
+      here.and(later);
+      latest[i] = here;
+    }
+
+    // checks placed somewhere whose value is used later, backwards
+    BitSet[] usedIn = new BitSet[n];
+    for (int i = 0; i < n; ++i) {
+      usedIn[i] = new BitSet(m);
+    }
+    BitSet[] usedOut = new BitSet[n];
+    for (boolean changed = true; changed; ) {
+      changed = false;
+      for (int i = n - 1; i >= 0; --i) {
+        usedOut[i] = new BitSet(m);
+        for (int s : succs[i]) {
+          usedOut[i].or(usedIn[s]);
+        }
+        BitSet v = (BitSet) antUse[i].clone();
+        v.or(usedOut[i]);
+        v.andNot(latest[i]);
+        changed |= update(usedIn, i, v);
+      }
+    }
+
+    for (int i = 0; i < n; ++i) {
+      BasicBlock b = dom.block(i);
+      // the first check of every kind in b is kept where it is if b is its latest
+      // point, and goes if it is computed before b; the others are available anyway
+      BitSet keep = (BitSet) antUse[i].clone();
+      keep.and(latest[i]);
+      BitSet seen = new BitSet(m);
+      for (int k = 0; k < b.size(); ++k) {
+        Quad q = b.getQuad(k);
+        int e = indexOf(q);
+        if (e < 0) {
+          continue;
+        }
+        boolean first = antUse[i].get(e) && !seen.get(e);
+        seen.set(e);
+        if (localRedundant.contains(q) || (first && !keep.get(e))) {
+          b.removeQuad(k--);
+          ++changes;
+        }
+      }
+      // and where it is latest but not in b yet, and needed later, it is inserted at the start
+      BitSet insert = (BitSet) latest[i].clone();
+      insert.and(usedOut[i]);
+      insert.andNot(antUse[i]);
+      int pos = 0;
+      for (int e = insert.nextSetBit(0); e >= 0; e = insert.nextSetBit(e + 1)) {
+        b.addQuad(pos++, representative.get(e).copy(cfg.getNewQuadID()));
+        ++changes;
+      }
+    }
+    if (changes > 0) {
+      CfgIndex.invalidate(cfg);
+    }
+  }
+
+  // -1 for a quad which is not a check, else NULL or BOUNDS
+  private static int kindOf(Quad q) {
+    Operator op = q.getOperator();
+    if (op instanceof Operator.NullCheck) {
+      return NULL;
+    }
+    if (op instanceof Operator.BoundsCheck) {
+      return BOUNDS;
+    }
+    return -1;
+  }
+
+  private static boolean sameHandlers(BasicBlock a, BasicBlock b) {
+    return a.getExceptionHandlerEntries().equals(b.getExceptionHandlerEntries());
+  }
+
+  // a quad no check may be moved across
+  private static boolean isBarrier(Quad q) {
+    Operator op = q.getOperator();
+    return (op.hasSideEffects() && !(op instanceof Operator.Branch)) || !q.getThrownExceptions().isEmpty();
+  }
+
+  // the name of a check, or null if its operands are not registers and int constants
+  private static String keyOf(Quad q) {
+    int kind = kindOf(q);
+    if (kind == NULL) {
+      Operand ref = Operator.NullCheck.getSrc(q);
+      return ref instanceof RegisterOperand ? "N:" + ((RegisterOperand) ref).getRegister() : null;
+    }
+    if (kind == BOUNDS) {
+      Operand ref = Operator.BoundsCheck.getRef(q), index = Operator.BoundsCheck.getIndex(q);
+      if (!(ref instanceof RegisterOperand)) {
+        return null;
+      }
+      String prefix = "B:" + ((RegisterOperand) ref).getRegister() + ":";
+      if (index instanceof RegisterOperand) {
+        return prefix + ((RegisterOperand) index).getRegister();
+      }
+      if (index instanceof IConstOperand) {
+        return prefix + "#" + ((IConstOperand) index).getValue();
+      }
+    }
+    return null;
+  }
+
+  private void intern(Quad q) {
+    String key = keyOf(q);
+    if (key == null || exprs.containsKey(key)) {
+      return;
+    }
+    int e = exprs.size();
+    exprs.put(key, e);
+    representative.add(q);
+    kinds.add(kindOf(q));
+    Operand[] operands = kindOf(q) == NULL
+        ? new Operand[]{Operator.NullCheck.getSrc(q)}
+        : new Operand[]{Operator.BoundsCheck.getRef(q), Operator.BoundsCheck.getIndex(q)};
+    for (Operand op : operands) {
+      if (op instanceof RegisterOperand) {
+        String name = ((RegisterOperand) op).getRegister().toString();
+        BitSet users = usedBy.get(name);
+        if (users == null) {
+          users = new BitSet();
+          usedBy.put(name, users);
+        }
+        users.set(e);
+      }
+    }
+  }
+
+  // the check computed by q, or -1
+  private int indexOf(Quad q) {
+    String key = keyOf(q);
+    Integer e = key == null ? null : exprs.get(key);
+    return e == null ? -1 : e;
+  }
+
+  private static int[] numbers(DominatorTree dom, List<BasicBlock> blocks) {
+    int[] ret = new int[blocks.size()];
+    int k = 0;
+    for (BasicBlock b : blocks) {
+      int i = dom.number(b);
+      if (i >= 0) {
+        ret[k++] = i;
+      }
+    }
+    if (k == ret.length) {
+      return ret;
+    }
+    int[] shrunk = new int[k];
+    System.arraycopy(ret, 0, shrunk, 0, k);
+    return shrunk;
+  }
+
+  // the intersection of sets[i] over adj, empty if there are none
+  private static BitSet meetAll(BitSet[] sets, int[] adj, int m) {
+    BitSet ret = new BitSet(m);
+    if (adj.length == 0) {
+      return ret;
+    }
+    ret.set(0, m);
+    for (int i : adj) {
+      ret.and(sets[i]);
+    }
+    return ret;
+  }
+
+  private static boolean update(BitSet[] sets, int i, BitSet v) {
+    if (v.equals(sets[i])) {
+      return false;
+    }
+    sets[i] = v;
+    return true;
+  }
+}
@@ -0,0 +1,333 @@
+package submit;
+
+import joeq.Compiler.Quad.*;
+import flow.CfgIndex;
+import flow.Flow;
+import flow.Flow.DataflowObject;
+import flow.RegisterTable;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.RegisterFactory.Register;
+
+import java.util.*;
+
+/**
+ * Global common subexpression elimination based on available expressions.
+ * <p>
+ * The expressions are the BINARY, UNARY, GETFIELD and ARRAYLENGTH quads,
+ * identified by their operator and operands, with the operands of
+ * commutative int and long operators in a fixed order. An expression is
+ * available at a quad if it is computed on every path to the quad and none
+ * of its operands is defined after that; a GETFIELD is also no longer
+ * available after a PUTFIELD of the same field, after a call or after a
+ * monitor operation, and reads of volatile fields are never available.
+ * <p>
+ * Every expression computed where it is available gets a new register. All
+ * computations of it which aren't available write that register and copy it
+ * into their own destination, and the available ones become a move from it.
+ * Copy propagation and the dead code passes clean up the moves afterwards.
+ */
+public class CommonSubexpressionOpt implements Flow.Analysis {
+  public static class ExprSet implements DataflowObject {
+    // the available expressions; every expression is available at first
+    private BitSet exprs = new BitSet();
+    private int size;
+
+    ExprSet(int size) {
+      this.size = size;
+      exprs.set(0, size);
+    }
+
+    public void setToTop() {
+      exprs.set(0, size);
+    }
+
+    public void setToBottom() {
+      exprs.clear();
+    }
+
+    public void meetWith(DataflowObject o) {
+      exprs.and(((ExprSet) o).exprs);
+    }
+
+    public void copy(DataflowObject o) {
+      exprs = (BitSet) ((ExprSet) o).exprs.clone();
+    }
+
+    @Override
+    public String toString() {
+      return exprs.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof ExprSet && exprs.equals(((ExprSet) o).exprs);
+    }
+
+    @Override
+    public int hashCode() {
+      return exprs.hashCode();
+    }
+  }
+
+  private RegisterTable table;
+  private ExprSet[] in, out;
+  private ExprSet entry, exit;
+  private int changes;
+  private boolean doOpt;
+
+  // the expressions as strings, the expression computed by every quad (by
+  // id, -1 for other quads), and the expressions killed by defining each
+  // register, by storing each field and by any call
+  private HashMap<String, Integer> exprs = new HashMap<String, Integer>();
+  private int[] exprOf;
+  private BitSet[] usedBy;
+  private HashMap<String, BitSet> fieldReads = new HashMap<String, BitSet>();
+  private BitSet allReads = new BitSet();
+
+  public CommonSubexpressionOpt() {
+    this(true);
+  }
+
+  /**
+   * With doOpt false only the available expressions are computed, and the
+   * cfg is only changed by an explicit call of eliminate.
+   */
+  public CommonSubexpressionOpt(boolean doOpt) {
+    this.doOpt = doOpt;
+  }
+
+  public void preprocess(ControlFlowGraph cfg) {
+    QuadIterator qit = new QuadIterator(cfg);
+    int max = 0;
+    while (qit.hasNext()) {
+      int id = qit.next().getID();
+      if (id > max)
+        max = id;
+    }
+    max += 1;
+
+    table = new RegisterTable(cfg);
+    usedBy = new BitSet[table.size()];
+    for (int r = 0; r < usedBy.length; ++r) {
+      usedBy[r] = new BitSet();
+    }
+    exprs.clear();
+    fieldReads.clear();
+    allReads.clear();
+    exprOf = new int[max];
+    Arrays.fill(exprOf, -1);
+    qit = new QuadIterator(cfg);
+    while (qit.hasNext()) {
+      Quad q = qit.next();
+      String key = keyOf(q);
+      if (key == null) {
+        continue;
+      }
+      Integer e = exprs.get(key);
+      if (e == null) {
+        e = exprs.size();
+        exprs.put(key, e);
+        for (Operand op : operandsOf(q)) {
+          if (op instanceof RegisterOperand) {
+            usedBy[table.indexOf(((RegisterOperand) op).getRegister())].set(e);
+          }
+        }
+        if (q.getOperator() instanceof Operator.Getfield) {
+          String field = Operator.Getfield.getField(q).toString();
+          if (!fieldReads.containsKey(field)) {
+            fieldReads.put(field, new BitSet());
+          }
+          fieldReads.get(field).set(e);
+          allReads.set(e);
+        }
+      }
+      exprOf[q.getID()] = e;
+    }
+
+    in = new ExprSet[max];
+    out = new ExprSet[max];
+    qit = new QuadIterator(cfg);
+    while (qit.hasNext()) {
+      int id = qit.next().getID();
+      in[id] = newTempVar();
+      out[id] = newTempVar();
+    }
+
+    // nothing is computed before the method starts
+    entry = newTempVar();
+    entry.setToBottom();
+    exit = newTempVar();
+  }
+
+  // the operands an expression depends on, in the order of its key
+  private static Operand[] operandsOf(Quad q) {
+    Operator op = q.getOperator();
+    if (op instanceof Operator.Binary) {
+      Operand a = Operator.Binary.getSrc1(q), b = Operator.Binary.getSrc2(q);
+      if (isCommutative(op) && a.toString().compareTo(b.toString()) > 0) {
+        return new Operand[]{b, a};
+      }
+      return new Operand[]{a, b};
+    } else if (op instanceof Operator.Unary) {
+      return new Operand[]{Operator.Unary.getSrc(q)};
+    } else if (op instanceof Operator.Getfield) {
+      return new Operand[]{Operator.Getfield.getBase(q)};
+    } else if (op instanceof Operator.ALength) {
+      return new Operand[]{Operator.ALength.getSrc(q)};
+    }
+    return null;
+  }
+
+  private static boolean isCommutative(Operator op) {
+    return op == Operator.Binary.ADD_I.INSTANCE || op == Operator.Binary.MUL_I.INSTANCE
+        || op == Operator.Binary.AND_I.INSTANCE || op == Operator.Binary.OR_I.INSTANCE
+        || op == Operator.Binary.XOR_I.INSTANCE || op == Operator.Binary.ADD_L.INSTANCE
+        || op == Operator.Binary.MUL_L.INSTANCE || op == Operator.Binary.AND_L.INSTANCE
+        || op == Operator.Binary.OR_L.INSTANCE || op == Operator.Binary.XOR_L.INSTANCE;
+  }
+
+  // the expression q computes as a string, or null if it isn't one
+  private static String keyOf(Quad q) {
+    Operand[] operands = operandsOf(q);
+    if (operands == null || q.getDefinedRegisters().size() != 1) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder(q.getOperator().toString());
+    if (q.getOperator() instanceof Operator.Getfield) {
+      Operand.FieldOperand field = Operator.Getfield.getField(q);
+      if (field.getField().isVolatile()) {
+        return null;
+      }
+      sb.append(" ").append(field);
+    }
+    for (Operand op : operands) {
+      sb.append(" ").append(op);
+    }
+    return sb.toString();
+  }
+
+  public void postprocess(ControlFlowGraph cfg) {
+    changes = doOpt ? eliminate(cfg) : 0;
+  }
+
+  /**
+   * Reuses the value of every expression computed where it is available,
+   * according to the last run, see the class comment, and returns the
+   * number of quads which became moves.
+   */
+  public int eliminate(ControlFlowGraph cfg) {
+    // the expressions which are available somewhere they are computed
+    BitSet reused = new BitSet();
+    for (QuadIterator qit = new QuadIterator(cfg); qit.hasNext(); ) {
+      Quad q = qit.next();
+      int e = exprOf[q.getID()];
+      if (e >= 0 && in[q.getID()].exprs.get(e)) {
+        reused.set(e);
+      }
+    }
+    if (reused.isEmpty()) {
+      return 0;
+    }
+
+    RegisterFactory rf = cfg.getRegisterFactory();
+    Register[] temps = new Register[exprs.size()];
+    int count = 0;
+    for (BasicBlock bb : cfg.reversePostOrder(cfg.entry())) {
+      for (int i = 0; i < bb.size(); ++i) {
+        Quad q = bb.getQuad(i);
+        int e = exprOf[q.getID()];
+        if (e < 0 || !reused.get(e)) {
+          continue;
+        }
+        RegisterOperand dest = q.getDefinedRegisters().get(0);
+        if (temps[e] == null) {
+          temps[e] = rf.makeReg(dest.getRegister());
+        }
+        boolean available = in[q.getID()].exprs.get(e);
+        // a replaced quad can keep its id, like in ConstantFoldOpt
+        Quad move = Operator.Move.create(available ? q.getID() : cfg.getNewQuadID(),
+            Operator.Move.getMoveOp(dest.getType()), (RegisterOperand) dest.copy(),
+            new RegisterOperand(temps[e], dest.getType()));
+        if (available) {
+          bb.replaceQuad(i, move);
+          ++count;
+        } else {
+          dest.setRegister(temps[e]);
+          bb.addQuad(++i, move);
+        }
+      }
+    }
+    CfgIndex.invalidate(cfg);
+    return count;
+  }
+
+  /**
+   * Returns the number of quads which became moves in the last run.
+   */
+  public int getChanges() {
+    return changes;
+  }
+
+  public boolean isForward() {
+    return true;
+  }
+
+  public DataflowObject getEntry() {
+    return entry;
+  }
+
+  public DataflowObject getExit() {
+    return exit;
+  }
+
+  public void setEntry(DataflowObject value) {
+    entry = (ExprSet) value;
+  }
+
+  public void setExit(DataflowObject value) {
+    exit = (ExprSet) value;
+  }
+
+  public DataflowObject getIn(Quad q) {
+    return in[q.getID()];
+  }
+
+  public DataflowObject getOut(Quad q) {
+    return out[q.getID()];
+  }
+
+  public void setIn(Quad q, DataflowObject value) {
+    in[q.getID()] = (ExprSet) value;
+  }
+
+  public void setOut(Quad q, DataflowObject value) {
+    out[q.getID()] = (ExprSet) value;
+  }
+
+  public ExprSet newTempVar() {
+    return new ExprSet(exprs.size());
+  }
+
+  public void processQuad(Quad q) {
+    int id = q.getID();
+    ExprSet val = newTempVar();
+    val.exprs.and(in[id].exprs);
+    Operator op = q.getOperator();
+    if (op instanceof Operator.Putfield) {
+      BitSet reads = fieldReads.get(Operator.Putfield.getField(q).toString());
+      if (reads != null) {
+        val.exprs.andNot(reads);
+      }
+    } else if (op instanceof Operator.Invoke || op instanceof Operator.Monitor) {
+      val.exprs.andNot(allReads);
+    }
+    // the expression is computed before its destination is defined
+    if (exprOf[id] >= 0) {
+      val.exprs.set(exprOf[id]);
+    }
+    for (RegisterOperand def : q.getDefinedRegisters()) {
+      val.exprs.andNot(usedBy[table.indexOf(def.getRegister())]);
+    }
+    out[id] = val;
+  }
+}
@@ -0,0 +1,132 @@
+package submit;
+
+import flow.CfgIndex;
+import flow.ConstantProp.SingleCP;
+import flow.DominatorTree;
+import flow.SCCP;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.IConstOperand;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.Operand.TargetOperand;
+
+import java.util.*;
+
+/**
+ * Constant folding and dead branch elimination driven by flow.SCCP.
+ * <p>
+ * Register operands with a constant value are replaced by the constant, int
+ * computations with a constant result become moves of the constant, and IFCMP_I
+ * quads which only ever take one edge become a goto (or are removed when they
+ * always fall through). Blocks that become unreachable are removed from the CFG.
+ */
+public class ConstantFoldOpt implements ControlFlowGraphVisitor {
+  // number of quads rewritten or removed by the last run
+  private int changes;
+  private boolean deadBranch;
+
+  public int getChanges() {
+    return changes;
+  }
+
+  /**
+   * Returns whether the last run folded a branch, and thus changed the edges of the cfg.
+   */
+  public boolean foldedBranch() {
+    return deadBranch;
+  }
+
+  public void visitCFG(ControlFlowGraph cfg) {
+    fold(cfg, new SCCP(cfg));
+  }
+
+  /**
+   * Same as visitCFG, with the constants of cfg computed already.
+   */
+  public void fold(ControlFlowGraph cfg, SCCP sccp) {
+    changes = 0;
+    deadBranch = false;
+    for (BasicBlock bb : new ArrayList<BasicBlock>(cfg.reversePostOrder(cfg.entry()))) {
+      if (!sccp.isExecutable(bb)) {
+        continue;
+      }
+      for (int i = 0; i < bb.size(); ++i) {
+        Quad q = bb.getQuad(i);
+        Operator op = q.getOperator();
+        if (op instanceof Operator.Move) {
+          Operator.Move.setSrc(q, fold(sccp, q, Operator.Move.getSrc(q)));
+        } else if (op instanceof Operator.Unary) {
+          Operand src = fold(sccp, q, Operator.Unary.getSrc(q));
+          if (op == Operator.Unary.NEG_I.INSTANCE && src instanceof IConstOperand) {
+            bb.replaceQuad(i, move(q, Operator.Unary.getDest(q), -((IConstOperand) src).getValue()));
+          } else {
+            Operator.Unary.setSrc(q, src);
+          }
+        } else if (op instanceof Operator.Binary) {
+          Operand src1 = fold(sccp, q, Operator.Binary.getSrc1(q));
+          Operand src2 = fold(sccp, q, Operator.Binary.getSrc2(q));
+          if (src1 instanceof IConstOperand && src2 instanceof IConstOperand && SCCP.isFoldable(op)
+              && !isDivByZero(op, ((IConstOperand) src2).getValue())) {
+            int v = SCCP.fold(op, ((IConstOperand) src1).getValue(), ((IConstOperand) src2).getValue());
+            bb.replaceQuad(i, move(q, Operator.Binary.getDest(q), v));
+          } else {
+            Operator.Binary.setSrc1(q, src1);
+            Operator.Binary.setSrc2(q, src2);
+          }
+        } else if (op instanceof Operator.IntIfCmp.IFCMP_I) {
+          Operator.IntIfCmp.setSrc1(q, fold(sccp, q, Operator.IntIfCmp.getSrc1(q)));
+          Operator.IntIfCmp.setSrc2(q, fold(sccp, q, Operator.IntIfCmp.getSrc2(q)));
+        }
+      }
+
+      Quad last = bb.getLastQuad();
+      if (last != null && last.getOperator() instanceof Operator.IntIfCmp) {
+        BasicBlock target = Operator.IntIfCmp.getTarget(last).getTarget();
+        BasicBlock fallthrough = bb.getFallthroughSuccessor();
+        boolean taken = sccp.isExecutable(bb, target), notTaken = sccp.isExecutable(bb, fallthrough);
+        if (target == fallthrough || taken == notTaken) {
+          continue;
+        }
+        if (taken) {
+          bb.replaceQuad(bb.size() - 1, Operator.Goto.create(last.getID(), Operator.Goto.GOTO.INSTANCE, new TargetOperand(target)));
+          bb.removeSuccessor(fallthrough);
+          fallthrough.removePredecessor(bb);
+        } else {
+          bb.removeQuad(bb.size() - 1);
+          bb.removeSuccessor(target);
+          target.removePredecessor(bb);
+        }
+        deadBranch = true;
+        ++changes;
+      }
+    }
+    if (deadBranch) {
+      cfg.removeUnreachableBasicBlocks();
+      DominatorTree.invalidate(cfg);
+    }
+    if (changes > 0) {
+      CfgIndex.invalidate(cfg);
+    }
+  }
+
+  // the operand itself, or an IConstOperand if it is a register holding a constant before q
+  private Operand fold(SCCP sccp, Quad q, Operand op) {
+    if (op instanceof RegisterOperand) {
+      SingleCP v = sccp.getValue(q, op);
+      if (v.isConst()) {
+        ++changes;
+        return new IConstOperand(v.getConst());
+      }
+    }
+    return op;
+  }
+
+  private static boolean isDivByZero(Operator op, int divisor) {
+    return divisor == 0 && (op == Operator.Binary.DIV_I.INSTANCE || op == Operator.Binary.REM_I.INSTANCE);
+  }
+
+  // q is replaced by the returned quad, so it can keep the id of q
+  private Quad move(Quad q, RegisterOperand dest, int value) {
+    ++changes;
+    return Operator.Move.create(q.getID(), Operator.Move.MOVE_I.INSTANCE, (RegisterOperand) dest.copy(), new IConstOperand(value));
+  }
+}
@@ -0,0 +1,351 @@
+package submit;
+
+import joeq.Compiler.Quad.*;
+import flow.CfgIndex;
+import flow.Flow;
+import flow.Flow.DataflowObject;
+import flow.RegisterTable;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.RegisterFactory.Register;
+
+import java.util.*;
+
+/**
+ * Copy propagation based on available copies, and coalescing of the moves
+ * which only rename the result of the quad before them.
+ * <p>
+ * A copy is a MOVE of one register into another. It is available at a quad
+ * if it is executed on every path to the quad and neither of its registers
+ * is defined after it, so a use of its destination there can use its source
+ * instead. Chains of copies are followed to the first source. The uses of
+ * the destination go away, so the moves become dead and the dead code
+ * passes remove them; a move of a register into itself is removed right away.
+ * <p>
+ * Coalescing handles the pattern the front end emits for every assignment,
+ * "T1 = ...; R2 = T1", where the temporary is defined and used only once:
+ * the quad defining T1 defines R2 instead and the move is removed, provided
+ * nothing in between uses or defines R2 or may throw to a handler of the block.
+ */
+public class CopyPropagationOpt implements Flow.Analysis {
+  public static class CopySet implements DataflowObject {
+    // the available copies; every copy is available at first
+    private BitSet copies = new BitSet();
+    private int size;
+
+    CopySet(int size) {
+      this.size = size;
+      copies.set(0, size);
+    }
+
+    public void setToTop() {
+      copies.set(0, size);
+    }
+
+    public void setToBottom() {
+      copies.clear();
+    }
+
+    public void meetWith(DataflowObject o) {
+      copies.and(((CopySet) o).copies);
+    }
+
+    public void copy(DataflowObject o) {
+      copies = (BitSet) ((CopySet) o).copies.clone();
+    }
+
+    @Override
+    public String toString() {
+      return copies.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof CopySet && copies.equals(((CopySet) o).copies);
+    }
+
+    @Override
+    public int hashCode() {
+      return copies.hashCode();
+    }
+  }
+
+  private RegisterTable table;
+  private CopySet[] in, out;
+  private CopySet entry, exit;
+  private int changes;
+  private boolean doOpt;
+
+  // the destination and source of every copy, its index by quad id (-1 for
+  // other quads), and the copies each register is part of, as either
+  private int[] dest, src, copyOf;
+  private BitSet[] involving, copiesTo;
+  private Register[] registers;
+
+  public CopyPropagationOpt() {
+    this(true);
+  }
+
+  /**
+   * With doOpt false only the available copies are computed, and the cfg is
+   * only changed by explicit calls of propagate and coalesce.
+   */
+  public CopyPropagationOpt(boolean doOpt) {
+    this.doOpt = doOpt;
+  }
+
+  public void preprocess(ControlFlowGraph cfg) {
+    QuadIterator qit = new QuadIterator(cfg);
+    int max = 0;
+    while (qit.hasNext()) {
+      int id = qit.next().getID();
+      if (id > max)
+        max = id;
+    }
+    max += 1;
+
+    table = new RegisterTable(cfg);
+    int numRegs = table.size();
+    registers = new Register[numRegs];
+    involving = new BitSet[numRegs];
+    copiesTo = new BitSet[numRegs];
+    for (int r = 0; r < numRegs; ++r) {
+      involving[r] = new BitSet();
+      copiesTo[r] = new BitSet();
+    }
+    copyOf = new int[max];
+    Arrays.fill(copyOf, -1);
+    ArrayList<Integer> dests = new ArrayList<Integer>(), srcs = new ArrayList<Integer>();
+    qit = new QuadIterator(cfg);
+    while (qit.hasNext()) {
+      Quad q = qit.next();
+      for (RegisterOperand op : q.getUsedRegisters()) {
+        registers[table.indexOf(op.getRegister())] = op.getRegister();
+      }
+      for (RegisterOperand op : q.getDefinedRegisters()) {
+        registers[table.indexOf(op.getRegister())] = op.getRegister();
+      }
+      if (isCopy(q)) {
+        int d = table.indexOf(Operator.Move.getDest(q).getRegister());
+        int s = table.indexOf(((RegisterOperand) Operator.Move.getSrc(q)).getRegister());
+        int c = dests.size();
+        copyOf[q.getID()] = c;
+        dests.add(d);
+        srcs.add(s);
+        involving[d].set(c);
+        involving[s].set(c);
+        copiesTo[d].set(c);
+      }
+    }
+    int numCopies = dests.size();
+    dest = new int[numCopies];
+    src = new int[numCopies];
+    for (int c = 0; c < numCopies; ++c) {
+      dest[c] = dests.get(c);
+      src[c] = srcs.get(c);
+    }
+
+    in = new CopySet[max];
+    out = new CopySet[max];
+    qit = new QuadIterator(cfg);
+    while (qit.hasNext()) {
+      int id = qit.next().getID();
+      in[id] = newTempVar();
+      out[id] = newTempVar();
+    }
+
+    // nothing is copied before the method starts
+    entry = newTempVar();
+    entry.setToBottom();
+    exit = newTempVar();
+  }
+
+  // a move of a register into another one
+  private static boolean isCopy(Quad q) {
+    if (!(q.getOperator() instanceof Operator.Move) || !(Operator.Move.getSrc(q) instanceof RegisterOperand)) {
+      return false;
+    }
+    return Operator.Move.getDest(q).getRegister() != ((RegisterOperand) Operator.Move.getSrc(q)).getRegister();
+  }
+
+  public void postprocess(ControlFlowGraph cfg) {
+    changes = doOpt ? propagate(cfg) + coalesce(cfg) : 0;
+  }
+
+  /**
+   * Replaces every use of the destination of a copy available at it with
+   * the source, according to the last run, removes the moves of a register
+   * into itself this makes, and returns the number of changes.
+   * <p>
+   * A replaced use reads the same value as before, so the copies available
+   * at the other quads don't change.
+   */
+  public int propagate(ControlFlowGraph cfg) {
+    int count = 0;
+    QuadIterator qit = new QuadIterator(cfg);
+    while (qit.hasNext()) {
+      Quad q = qit.next();
+      BitSet avail = in[q.getID()].copies;
+      for (RegisterOperand use : q.getUsedRegisters()) {
+        int r = table.indexOf(use.getRegister()), first = r;
+        // a copy kills the copies out of its destination, so a chain has no cycles
+        for (int c = next(avail, r); c >= 0; c = next(avail, r)) {
+          r = src[c];
+        }
+        if (r != first) {
+          use.setRegister(registers[r]);
+          ++count;
+        }
+      }
+      if (q.getOperator() instanceof Operator.Move && Operator.Move.getSrc(q) instanceof RegisterOperand
+          && !isCopy(q)) {
+        qit.remove();
+        ++count;
+      }
+    }
+    if (count > 0) {
+      CfgIndex.invalidate(cfg);
+    }
+    return count;
+  }
+
+  // the available copy into r, or -1
+  private int next(BitSet avail, int r) {
+    BitSet into = copiesTo[r];
+    for (int c = into.nextSetBit(0); c >= 0; c = into.nextSetBit(c + 1)) {
+      if (avail.get(c)) {
+        return c;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Coalesces the temporaries defined and used once, where the use is a
+   * move in the same block, with the destination of the move, and returns
+   * how many moves were removed. Doesn't need the analysis.
+   */
+  public int coalesce(ControlFlowGraph cfg) {
+    RegisterTable regs = new RegisterTable(cfg);
+    int[] defs = new int[regs.size()], uses = new int[regs.size()];
+    for (QuadIterator qit = new QuadIterator(cfg); qit.hasNext(); ) {
+      Quad q = qit.next();
+      for (RegisterOperand op : q.getDefinedRegisters()) {
+        ++defs[regs.indexOf(op.getRegister())];
+      }
+      for (RegisterOperand op : q.getUsedRegisters()) {
+        ++uses[regs.indexOf(op.getRegister())];
+      }
+    }
+
+    int count = 0;
+    for (BasicBlock bb : cfg.reversePostOrder(cfg.entry())) {
+      boolean handlers = !bb.getExceptionHandlerEntries().isEmpty();
+      for (int i = 0; i < bb.size(); ++i) {
+        Quad m = bb.getQuad(i);
+        if (!isCopy(m)) {
+          continue;
+        }
+        Register x = Operator.Move.getDest(m).getRegister();
+        Register t = ((RegisterOperand) Operator.Move.getSrc(m)).getRegister();
+        int ti = regs.indexOf(t);
+        if (!t.isTemp() || defs[ti] != 1 || uses[ti] != 1) {
+          continue;
+        }
+        // the definition of t, if it is in this block with nothing in the way
+        for (int j = i - 1; j >= 0; --j) {
+          Quad d = bb.getQuad(j);
+          List<RegisterOperand> def = d.getDefinedRegisters();
+          if (mentions(d, t)) {
+            if (def.size() == 1) {
+              def.get(0).setRegister(x);
+              bb.removeQuad(i--);
+              ++count;
+            }
+            break;
+          }
+          if (mentions(d, x) || handlers && !d.getThrownExceptions().isEmpty()) {
+            break;
+          }
+        }
+      }
+    }
+    if (count > 0) {
+      CfgIndex.invalidate(cfg);
+    }
+    return count;
+  }
+
+  private static boolean mentions(Quad q, Register r) {
+    for (RegisterOperand op : q.getDefinedRegisters()) {
+      if (op.getRegister() == r) {
+        return true;
+      }
+    }
+    for (RegisterOperand op : q.getUsedRegisters()) {
+      if (op.getRegister() == r) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the number of changes made by the last run.
+   */
+  public int getChanges() {
+    return changes;
+  }
+
+  public boolean isForward() {
+    return true;
+  }
+
+  public DataflowObject getEntry() {
+    return entry;
+  }
+
+  public DataflowObject getExit() {
+    return exit;
+  }
+
+  public void setEntry(DataflowObject value) {
+    entry = (CopySet) value;
+  }
+
+  public void setExit(DataflowObject value) {
+    exit = (CopySet) value;
+  }
+
+  public DataflowObject getIn(Quad q) {
+    return in[q.getID()];
+  }
+
+  public DataflowObject getOut(Quad q) {
+    return out[q.getID()];
+  }
+
+  public void setIn(Quad q, DataflowObject value) {
+    in[q.getID()] = (CopySet) value;
+  }
+
+  public void setOut(Quad q, DataflowObject value) {
+    out[q.getID()] = (CopySet) value;
+  }
+
+  public CopySet newTempVar() {
+    return new CopySet(dest.length);
+  }
+
+  public void processQuad(Quad q) {
+    int id = q.getID();
+    CopySet val = newTempVar();
+    val.copies.and(in[id].copies);
+    for (RegisterOperand def : q.getDefinedRegisters()) {
+      val.copies.andNot(involving[table.indexOf(def.getRegister())]);
+    }
+    if (copyOf[id] >= 0) {
+      val.copies.set(copyOf[id]);
+    }
+    out[id] = val;
+  }
+}
@@ -0,0 +1,298 @@
+package submit;
+
+import flow.DominatorTree;
+import flow.RegisterTable;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+
+import java.util.*;
+
+/**
+ * Finds redundant NULL_CHECKs in one walk over the dominator tree, instead
+ * of solving NullCheckOpt's dataflow problem.
+ * <p>
+ * A check is redundant if a check of the same value dominates it. The values
+ * are told apart like in SSA form, without rewriting the cfg: every
+ * definition of a register, and every block where two of its definitions
+ * meet (the iterated dominance frontier of its definitions), starts a new
+ * version of it. The checked versions are kept in a set which is undone when
+ * the walk leaves a subtree, so each quad is looked at once.
+ * <p>
+ * With doExt the registers known to be non-null for the other reasons
+ * NullCheckOpt knows about are added as well: this, the result of NEW and
+ * NEWARRAY, moves of a checked register, and the non-null side of an IFCMP_A
+ * against null when that side has no other predecessor.
+ * <p>
+ * The result is the same as NullCheckOpt's except where a check is only
+ * redundant because every predecessor of a join checked the value without
+ * one of them dominating the join, which this walk can't see.
+ * <p>
+ * Set the nullcheck.dominators system property to use this in
+ * FindRedundantNullChecks and Optimize.
+ */
+public class DominatorNullCheckOpt implements ControlFlowGraphVisitor {
+  static final boolean ENABLED = Boolean.getBoolean("nullcheck.dominators");
+
+  // the kinds of entries of the walk's stack
+  private static final int ENTER = 0, QUADS = 1, LEAVE = 2;
+
+  private boolean doOpt, doExt, print;
+  private TreeSet<Integer> redundant = new TreeSet<Integer>();
+  private int changes;
+
+  private RegisterTable table;
+  // the current version of every register, and whether a version is known to be non-null
+  private int[] version;
+  private BitSet checked = new BitSet();
+  private int versions;
+  // what to restore when leaving a subtree: register ids with their old versions, and checked versions
+  private int[] undoReg = new int[16], undoVersion = new int[16];
+  private int undoTop;
+  private int[] checkedLog = new int[16];
+  private int checkedTop;
+  private int thisReg;
+
+  /**
+   * See NullCheckOpt(boolean, boolean, boolean).
+   */
+  public DominatorNullCheckOpt(boolean doOpt, boolean doExt, boolean print) {
+    this.doOpt = doOpt;
+    this.doExt = doExt;
+    this.print = print;
+  }
+
+  public void visitCFG(ControlFlowGraph cfg) {
+    find(cfg);
+    changes = 0;
+    if (doOpt) {
+      changes = NullCheckOpt.removeQuads(cfg, redundant);
+    } else if (print) {
+      System.out.print(cfg.getMethod().getName());
+      for (int id : redundant) {
+        System.out.print(" " + id);
+      }
+      System.out.println();
+    }
+  }
+
+  /**
+   * Returns the ids of the redundant NULL_CHECKs found by the last run.
+   */
+  public Set<Integer> getRedundant() {
+    return Collections.unmodifiableSet(redundant);
+  }
+
+  /**
+   * Returns the number of NULL_CHECKs removed by the last run, 0 if doOpt is false.
+   */
+  public int getChanges() {
+    return changes;
+  }
+
+  /**
+   * Finds the redundant NULL_CHECKs of cfg without changing it.
+   */
+  public Set<Integer> find(ControlFlowGraph cfg) {
+    redundant.clear();
+    DominatorTree dom = DominatorTree.of(cfg);
+    table = new RegisterTable(cfg);
+    int n = dom.size(), numRegs = table.size();
+    ArrayList<List<Integer>> phis = placePhis(dom, numRegs);
+
+    // every register starts as its own version
+    version = new int[numRegs];
+    for (int r = 0; r < numRegs; ++r) {
+      version[r] = r;
+    }
+    versions = numRegs;
+    checked.clear();
+    undoTop = 0;
+    checkedTop = 0;
+    thisReg = cfg.getMethod().isStatic() ? -1 : table.indexOfLocal(0);
+    if (doExt && thisReg >= 0) {
+      check(version[thisReg]);
+    }
+
+    // every entry is 3 * block number + kind
+    int[] stack = new int[3 * n];
+    int[] undoMark = new int[n], checkedMark = new int[n];
+    int top = 0;
+    if (n > 0) {
+      stack[top++] = ENTER;
+    }
+    while (top > 0) {
+      int e = stack[--top], i = e / 3;
+      BasicBlock b = dom.block(i);
+      switch (e % 3) {
+        case ENTER:
+          undoMark[i] = undoTop;
+          checkedMark[i] = checkedTop;
+          enter(dom, b, phis.get(i));
+          // a handler may be entered from any quad of a block it protects, so it
+          // has to see what holds at the start of the block, before its quads
+          stack[top++] = 3 * i + LEAVE;
+          stack[top++] = 3 * i + QUADS;
+          for (BasicBlock c : dom.children(b)) {
+            if (b.getExceptionHandlerEntries().contains(c)) {
+              stack[top++] = 3 * dom.number(c) + ENTER;
+            }
+          }
+          break;
+        case QUADS:
+          for (ListIterator<Quad> it = b.iterator(); it.hasNext(); ) {
+            visitQuad(it.next());
+          }
+          for (BasicBlock c : dom.children(b)) {
+            if (!b.getExceptionHandlerEntries().contains(c)) {
+              stack[top++] = 3 * dom.number(c) + ENTER;
+            }
+          }
+          break;
+        default:
+          while (undoTop > undoMark[i]) {
+            --undoTop;
+            version[undoReg[undoTop]] = undoVersion[undoTop];
+          }
+          while (checkedTop > checkedMark[i]) {
+            checked.clear(checkedLog[--checkedTop]);
+          }
+      }
+    }
+    return getRedundant();
+  }
+
+  // the registers which get a new version at the start of every block
+  private ArrayList<List<Integer>> placePhis(DominatorTree dom, int numRegs) {
+    int n = dom.size();
+    ArrayList<List<Integer>> defBlocks = new ArrayList<List<Integer>>(numRegs);
+    for (int r = 0; r < numRegs; ++r) {
+      defBlocks.add(new ArrayList<Integer>());
+    }
+    for (int i = 0; i < n; ++i) {
+      for (ListIterator<Quad> it = dom.block(i).iterator(); it.hasNext(); ) {
+        for (RegisterOperand def : it.next().getDefinedRegisters()) {
+          List<Integer> list = defBlocks.get(table.indexOf(def.getRegister()));
+          if (list.isEmpty() || list.get(list.size() - 1) != i) {
+            list.add(i);
+          }
+        }
+      }
+    }
+
+    ArrayList<List<Integer>> phis = new ArrayList<List<Integer>>(n);
+    for (int i = 0; i < n; ++i) {
+      phis.add(new ArrayList<Integer>(2));
+    }
+    int[] placed = new int[n], queued = new int[n];
+    Arrays.fill(placed, -1);
+    Arrays.fill(queued, -1);
+    for (int r = 0; r < numRegs; ++r) {
+      ArrayList<Integer> work = new ArrayList<Integer>(defBlocks.get(r));
+      for (int i : work) {
+        queued[i] = r;
+      }
+      while (!work.isEmpty()) {
+        BasicBlock x = dom.block(work.remove(work.size() - 1));
+        for (BasicBlock f : dom.frontier(x)) {
+          int y = dom.number(f);
+          if (placed[y] == r) {
+            continue;
+          }
+          placed[y] = r;
+          phis.get(y).add(r);
+          if (queued[y] != r) {
+            queued[y] = r;
+            work.add(y);
+          }
+        }
+      }
+    }
+    return phis;
+  }
+
+  private void enter(DominatorTree dom, BasicBlock b, List<Integer> phis) {
+    for (int r : phis) {
+      define(r);
+    }
+    BasicBlock idom = dom.idom(b);
+    if (idom == null) {
+      return;
+    }
+    if (b.isExceptionHandlerEntry()) {
+      // the handler is entered before the quads of idom, but may see what they defined
+      if (idom.getExceptionHandlerEntries().contains(b)) {
+        for (ListIterator<Quad> it = idom.iterator(); it.hasNext(); ) {
+          for (RegisterOperand def : it.next().getDefinedRegisters()) {
+            define(table.indexOf(def.getRegister()));
+          }
+        }
+      }
+      return;
+    }
+    if (doExt && b.getNumberOfPredecessors() == 1 && idom.size() > 0) {
+      Quad q = idom.getLastQuad();
+      if (q.getOperator() instanceof Operator.IntIfCmp.IFCMP_A) {
+        List<RegisterOperand> use = q.getUsedRegisters();
+        if ((Operand.Util.isNullConstant(Operator.IntIfCmp.getSrc1(q)) || Operand.Util.isNullConstant(Operator.IntIfCmp.getSrc2(q)))
+            && !use.isEmpty()) {
+          boolean eq = Operator.IntIfCmp.getCond(q).getCondition() == 0;
+          BasicBlock fail = idom.getFallthroughSuccessor();
+          BasicBlock success = Operator.IntIfCmp.getTarget(q).getTarget();
+          if (fail != success && b == (eq ? fail : success)) {
+            check(version[table.indexOf(use.get(0).getRegister())]);
+          }
+        }
+      }
+    }
+  }
+
+  private void visitQuad(Quad q) {
+    Operator op = q.getOperator();
+    List<RegisterOperand> use = q.getUsedRegisters(), def = q.getDefinedRegisters();
+    if (op instanceof Operator.NullCheck) {
+      int v = version[table.indexOf(use.get(0).getRegister())];
+      if (checked.get(v)) {
+        redundant.add(q.getID());
+      } else {
+        check(v);
+      }
+    }
+    boolean moveChecked = doExt && op instanceof Operator.Move && !use.isEmpty()
+        && checked.get(version[table.indexOf(use.get(0).getRegister())]);
+    for (RegisterOperand d : def) {
+      int r = table.indexOf(d.getRegister());
+      define(r);
+      if (doExt && (r == thisReg || moveChecked || op instanceof Operator.New || op instanceof Operator.NewArray)) {
+        check(version[r]);
+      }
+    }
+  }
+
+  // gives register r a new version
+  private void define(int r) {
+    if (undoTop == undoReg.length) {
+      undoReg = grow(undoReg);
+      undoVersion = grow(undoVersion);
+    }
+    undoReg[undoTop] = r;
+    undoVersion[undoTop++] = version[r];
+    version[r] = versions++;
+  }
+
+  private void check(int v) {
+    if (checked.get(v)) {
+      return;
+    }
+    if (checkedTop == checkedLog.length) {
+      checkedLog = grow(checkedLog);
+    }
+    checked.set(v);
+    checkedLog[checkedTop++] = v;
+  }
+
+  private static int[] grow(int[] a) {
+    int[] ret = new int[a.length * 2];
+    System.arraycopy(a, 0, ret, 0, a.length);
+    return ret;
+  }
+}
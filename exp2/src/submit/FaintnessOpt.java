@@ -0,0 +1,215 @@
+package submit;
+
+import joeq.Compiler.Quad.*;
+import flow.CfgIndex;
+import flow.Flow;
+import flow.Flow.DataflowObject;
+import flow.RegisterTable;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+
+import java.util.*;
+
+/**
+ * Dead code elimination based on faint variables.
+ * <p>
+ * A register is faint at a point if it is dead there, or only used to
+ * compute other faint registers. Unlike LivenessOpt, a quad without side
+ * effects doesn't make its uses live unless one of its definitions is not
+ * faint, so a whole chain of dead computations is found by one solve and
+ * removed at once.
+ */
+public class FaintnessOpt implements Flow.Analysis {
+  public static class VarSet implements DataflowObject {
+    // the faint registers; every register is faint at first
+    private BitSet faint = new BitSet();
+    private int size;
+
+    VarSet(int size) {
+      this.size = size;
+      faint.set(0, size);
+    }
+
+    public void setToTop() {
+      faint.set(0, size);
+    }
+
+    public void setToBottom() {
+      faint.clear();
+    }
+
+    public void meetWith(DataflowObject o) {
+      faint.and(((VarSet) o).faint);
+    }
+
+    public void copy(DataflowObject o) {
+      faint = (BitSet) ((VarSet) o).faint.clone();
+    }
+
+    @Override
+    public String toString() {
+      return faint.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof VarSet && faint.equals(((VarSet) o).faint);
+    }
+
+    @Override
+    public int hashCode() {
+      return faint.hashCode();
+    }
+  }
+
+  private RegisterTable table;
+  private VarSet[] in, out;
+  private VarSet entry, exit;
+  private int changes;
+  private boolean doOpt;
+
+  public FaintnessOpt() {
+    this(true);
+  }
+
+  /**
+   * With doOpt false only the faint registers are computed, and dead code is
+   * only removed by an explicit call of removeDeadCode.
+   */
+  public FaintnessOpt(boolean doOpt) {
+    this.doOpt = doOpt;
+  }
+
+  public void preprocess(ControlFlowGraph cfg) {
+    QuadIterator qit = new QuadIterator(cfg);
+    int max = 0;
+    while (qit.hasNext()) {
+      int id = qit.next().getID();
+      if (id > max)
+        max = id;
+    }
+    max += 1;
+
+    // the table must be complete before any VarSet is created
+    table = new RegisterTable(cfg);
+    in = new VarSet[max];
+    out = new VarSet[max];
+
+    qit = new QuadIterator(cfg);
+    while (qit.hasNext()) {
+      int id = qit.next().getID();
+      in[id] = newTempVar();
+      out[id] = newTempVar();
+    }
+
+    entry = newTempVar();
+    exit = newTempVar();
+  }
+
+  public void postprocess(ControlFlowGraph cfg) {
+    changes = doOpt ? removeDeadCode(cfg) : 0;
+  }
+
+  /**
+   * Removes the quads without side effects whose defined registers are all
+   * faint, according to the last run, and returns how many there were.
+   * <p>
+   * Such a quad doesn't make any register less faint, so removing them
+   * leaves the faint registers at all other quads unchanged.
+   */
+  public int removeDeadCode(ControlFlowGraph cfg) {
+    int count = 0;
+    QuadIterator qit = new QuadIterator(cfg);
+    while (qit.hasNext()) {
+      Quad q = qit.next();
+      if (isFaint(q)) {
+        qit.remove();
+        ++count;
+      }
+    }
+    if (count > 0) {
+      CfgIndex.invalidate(cfg);
+    }
+    return count;
+  }
+
+  /**
+   * Returns true if q has no side effects and defines only registers which
+   * are faint after it.
+   */
+  private boolean isFaint(Quad q) {
+    if (q.getOperator().hasSideEffects()) {
+      return false;
+    }
+    BitSet faint = out[q.getID()].faint;
+    for (RegisterOperand def : q.getDefinedRegisters()) {
+      if (!faint.get(table.indexOf(def.getRegister()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of quads removed by the last run.
+   */
+  public int getChanges() {
+    return changes;
+  }
+
+  public boolean isForward() {
+    return false;
+  }
+
+  public DataflowObject getEntry() {
+    return entry;
+  }
+
+  public DataflowObject getExit() {
+    return exit;
+  }
+
+  public void setEntry(DataflowObject value) {
+    entry = (VarSet) value;
+  }
+
+  public void setExit(DataflowObject value) {
+    exit = (VarSet) value;
+  }
+
+  public DataflowObject getIn(Quad q) {
+    return in[q.getID()];
+  }
+
+  public DataflowObject getOut(Quad q) {
+    return out[q.getID()];
+  }
+
+  public void setIn(Quad q, DataflowObject value) {
+    in[q.getID()] = (VarSet) value;
+  }
+
+  public void setOut(Quad q, DataflowObject value) {
+    out[q.getID()] = (VarSet) value;
+  }
+
+  public VarSet newTempVar() {
+    return new VarSet(table.size());
+  }
+
+  public void processQuad(Quad q) {
+    int id = q.getID();
+    VarSet val = newTempVar();
+    val.faint.and(out[id].faint);
+    // a faint quad is removable, so it neither kills nor uses anything;
+    // its definitions are faint already
+    if (!isFaint(q)) {
+      for (RegisterOperand def : q.getDefinedRegisters()) {
+        val.faint.set(table.indexOf(def.getRegister()));
+      }
+      for (RegisterOperand use : q.getUsedRegisters()) {
+        val.faint.clear(table.indexOf(use.getRegister()));
+      }
+    }
+    in[id] = val;
+  }
+}
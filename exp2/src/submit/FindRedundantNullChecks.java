@@ -2,8 +2,12 @@ package submit;
 
 import flow.*;
 import joeq.Class.jq_Class;
+import joeq.Compiler.Quad.ControlFlowGraphVisitor;
 import joeq.Main.Helper;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class FindRedundantNullChecks {
 
     /**
@@ -14,11 +18,19 @@ public class FindRedundantNullChecks {
      * @param args an array of class names
      */
     public static void main(String[] args) {
-        FlowSolver solver = new FlowSolver();
+        List<jq_Class> classes = new ArrayList<jq_Class>();
         for (String name : args) {
-            jq_Class clazz = (jq_Class) Helper.load(name);
-            solver.registerAnalysis(new NullCheckOpt(false, false));
-            Helper.runPass(clazz, solver);
+            classes.add((jq_Class) Helper.load(name));
         }
+        new ParallelRunner().run(classes, null, new ParallelRunner.Factory() {
+            public ControlFlowGraphVisitor create() {
+                if (DominatorNullCheckOpt.ENABLED) {
+                    return new DominatorNullCheckOpt(false, false, true);
+                }
+                FlowSolver solver = new FlowSolver();
+                solver.registerAnalysis(new NullCheckOpt(false, false));
+                return solver;
+            }
+        });
     }
 }
\ No newline at end of file
@@ -1,15 +1,17 @@
 package submit;
 
 import joeq.Compiler.Quad.*;
+import flow.CfgIndex;
 import flow.Flow;
 import flow.Flow.DataflowObject;
+import flow.RegisterTable;
 import joeq.Compiler.Quad.Operand.RegisterOperand;
 
 import java.util.*;
 
 public class LivenessOpt implements Flow.Analysis {
   public static class VarSet implements DataflowObject {
-    private HashSet<String> vars = new HashSet<String>();
+    private BitSet vars = new BitSet();
 
     public void setToTop() {
       throw new UnsupportedOperationException();
@@ -20,11 +22,11 @@ public class LivenessOpt implements Flow.Analysis {
     }
 
     public void meetWith(DataflowObject o) {
-      vars.addAll(((VarSet) o).vars);
+      vars.or(((VarSet) o).vars);
     }
 
     public void copy(DataflowObject o) {
-      vars = new HashSet<String>(((VarSet) o).vars);
+      vars = (BitSet) ((VarSet) o).vars.clone();
     }
 
     @Override
@@ -43,8 +45,23 @@ public class LivenessOpt implements Flow.Analysis {
     }
   }
 
+  private RegisterTable table;
   private VarSet[] in, out;
   private VarSet entry, exit;
+  private int changes;
+  private boolean doOpt;
+
+  public LivenessOpt() {
+    this(true);
+  }
+
+  /**
+   * With doOpt false only the liveness is computed, and dead code is only
+   * removed by an explicit call of removeDeadCode.
+   */
+  public LivenessOpt(boolean doOpt) {
+    this.doOpt = doOpt;
+  }
 
   public void preprocess(ControlFlowGraph cfg) {
     QuadIterator qit = new QuadIterator(cfg);
@@ -66,27 +83,189 @@ public class LivenessOpt implements Flow.Analysis {
       out[id] = new VarSet();
     }
 
+    table = new RegisterTable(cfg);
     entry = new VarSet();
     exit = new VarSet();
   }
 
   public void postprocess(ControlFlowGraph cfg) {
-    QuadIterator qit = new QuadIterator(cfg);
-        out:
-    while (qit.hasNext()) {
-      Quad q = qit.next();
-      q.getOperator();
-      HashSet<String> out = this.out[q.getID()].vars;
-      if (q.getOperator().hasSideEffects()) {
+    changes = doOpt ? removeDeadCode(cfg) : 0;
+  }
+
+  /**
+   * Removes the quads without side effects whose defined registers are all
+   * dead, according to the last run, and returns how many there were.
+   * <p>
+   * The liveness is kept up to date while removing: dropping a quad drops
+   * its uses, so the registers it used are re-evaluated backwards from it,
+   * and quads whose definitions become dead that way are removed as well.
+   * So all cascading dead code is gone after one call, and the IN/OUT
+   * values still describe the remaining quads.
+   */
+  public int removeDeadCode(ControlFlowGraph cfg) {
+    CfgIndex index = CfgIndex.of(cfg);
+    int n = index.size();
+    int[][] uses = new int[n][], defs = new int[n][];
+    for (int i = 0; i < n; ++i) {
+      uses[i] = ids(index.quad(i).getUsedRegisters());
+      defs[i] = ids(index.quad(i).getDefinedRegisters());
+    }
+
+    boolean[] removed = new boolean[n];
+    // candidates for removal, every quad at first
+    int[] stack = new int[n];
+    boolean[] stacked = new boolean[n];
+    int top = 0;
+    for (int i = n - 1; i >= 0; --i) {
+      stack[top++] = i;
+      stacked[i] = true;
+    }
+    int count = 0;
+    while (top > 0) {
+      int i = stack[--top];
+      stacked[i] = false;
+      if (removed[i] || !isDead(index.quad(i), defs[i])) {
+        continue;
+      }
+      removed[i] = true;
+      ++count;
+      for (int r : uses[i]) {
+        for (int p : unlive(index, uses, defs, removed, i, r)) {
+          if (!stacked[p] && !removed[p]) {
+            stacked[p] = true;
+            stack[top++] = p;
+          }
+        }
+      }
+    }
+
+    if (count > 0) {
+      QuadIterator qit = new QuadIterator(cfg);
+      while (qit.hasNext()) {
+        if (removed[index.ordinal(qit.next())]) {
+          qit.remove();
+        }
+      }
+      CfgIndex.invalidate(cfg);
+    }
+    return count;
+  }
+
+  private int[] ids(List<RegisterOperand> regs) {
+    int[] ret = new int[regs.size()];
+    for (int k = 0; k < ret.length; ++k) {
+      ret[k] = table.indexOf(regs.get(k).getRegister());
+    }
+    return ret;
+  }
+
+  private boolean isDead(Quad q, int[] defs) {
+    if (q.getOperator().hasSideEffects()) {
+      return false;
+    }
+    BitSet out = this.out[q.getID()].vars;
+    for (int d : defs) {
+      if (out.get(d)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean contains(int[] regs, int r) {
+    for (int x : regs) {
+      if (x == r) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Updates the liveness of register r after quad i, which used it, has
+   * been removed, and returns the quads at which r became dead after them.
+   * <p>
+   * Liveness is a least fixpoint, so just clearing r where nothing uses it
+   * any more could keep r live around a loop. Instead r is first cleared at
+   * every point it may have been live at because of quad i, i.e. backwards
+   * from i up to the definitions of r, and then set again where the other
+   * uses of r still reach.
+   */
+  private List<Integer> unlive(CfgIndex index, int[][] uses, int[][] defs, boolean[] removed, int i, int r) {
+    ArrayList<Integer> region = new ArrayList<Integer>();
+    BitSet inI = in[index.quad(i).getID()].vars;
+    if (!inI.get(r) || out[index.quad(i).getID()].vars.get(r)) {
+      // r was dead before i anyway, or stays live through it
+      return region;
+    }
+    inI.clear(r);
+
+    // clear r backwards from i
+    ArrayList<Integer> stack = new ArrayList<Integer>();
+    stack.add(i);
+    while (!stack.isEmpty()) {
+      int j = stack.remove(stack.size() - 1);
+      for (int k = index.predStart[j]; k < index.predStart[j + 1]; ++k) {
+        int p = index.preds[k];
+        if (p == CfgIndex.ENTRY_EXIT || !out[index.quad(p).getID()].vars.get(r)) {
+          continue;
+        }
+        out[index.quad(p).getID()].vars.clear(r);
+        region.add(p);
+        BitSet inP = in[index.quad(p).getID()].vars;
+        boolean generates = !removed[p] && contains(uses[p], r);
+        boolean kills = !removed[p] && contains(defs[p], r);
+        if (inP.get(r) && !generates && !kills) {
+          inP.clear(r);
+          stack.add(p);
+        }
+      }
+    }
+
+    // set it again where it is still live
+    stack.addAll(region);
+    while (!stack.isEmpty()) {
+      int j = stack.remove(stack.size() - 1);
+      BitSet outJ = out[index.quad(j).getID()].vars;
+      if (outJ.get(r)) {
+        continue;
+      }
+      boolean live = false;
+      for (int k = index.succStart[j]; k < index.succStart[j + 1] && !live; ++k) {
+        int s = index.succs[k];
+        live = s != CfgIndex.ENTRY_EXIT && in[index.quad(s).getID()].vars.get(r);
+      }
+      if (!live) {
         continue;
       }
-      for (RegisterOperand def : q.getDefinedRegisters()) {
-        if (out.contains(def.getRegister().toString())) {
-          continue out;
+      outJ.set(r);
+      BitSet inJ = in[index.quad(j).getID()].vars;
+      if (!inJ.get(r) && (removed[j] || !contains(defs[j], r))) {
+        inJ.set(r);
+        for (int k = index.predStart[j]; k < index.predStart[j + 1]; ++k) {
+          int p = index.preds[k];
+          if (p != CfgIndex.ENTRY_EXIT && !out[index.quad(p).getID()].vars.get(r)) {
+            stack.add(p);
+          }
         }
       }
-      qit.remove();
     }
+
+    // the quads which may have lost their only reason to stay
+    ArrayList<Integer> dead = new ArrayList<Integer>();
+    for (int p : region) {
+      if (!out[index.quad(p).getID()].vars.get(r) && contains(defs[p], r)) {
+        dead.add(p);
+      }
+    }
+    return dead;
+  }
+
+  /**
+   * Returns the number of quads removed by the last run.
+   */
+  public int getChanges() {
+    return changes;
   }
 
   public boolean isForward() {
@@ -131,12 +310,12 @@ public class LivenessOpt implements Flow.Analysis {
 
   public void processQuad(Quad q) {
     int id = q.getID();
-    HashSet<String> tmp = new HashSet<String>(out[id].vars);
+    BitSet tmp = (BitSet) out[id].vars.clone();
     for (RegisterOperand def : q.getDefinedRegisters()) {
-      tmp.remove(def.getRegister().toString());
+      tmp.clear(table.indexOf(def.getRegister()));
     }
     for (RegisterOperand use : q.getUsedRegisters()) {
-      tmp.add(use.getRegister().toString());
+      tmp.set(table.indexOf(use.getRegister()));
     }
     in[id] = new VarSet();
     in[id].vars = tmp;
@@ -1,21 +1,24 @@
 package submit;
 
 import joeq.Compiler.Quad.*;
+import flow.CfgIndex;
 import flow.Flow;
 import flow.Flow.*;
+import flow.RegisterTable;
 
 import java.util.*;
 
-public class NullCheckOpt implements Flow.Analysis {
-  public static class VarSet implements DataflowObject {
-    private HashSet<String> checked;
+public class NullCheckOpt implements Flow.InPlaceAnalysis {
+  public static class VarSet implements MeetObject {
+    // ids in the RegisterTable of the registers known to be non-null
+    private BitSet checked;
 
-    VarSet(HashSet<String> checked) {
-      this.checked = new HashSet<String>(checked);
+    VarSet(BitSet checked) {
+      this.checked = (BitSet) checked.clone();
     }
 
     VarSet() {
-      this.checked = new HashSet<String>();
+      this.checked = new BitSet();
     }
 
     public void setToTop() {
@@ -27,11 +30,18 @@ public class NullCheckOpt implements Flow.Analysis {
     }
 
     public void meetWith(DataflowObject o) {
-      checked.retainAll(((VarSet) o).checked);
+      checked.and(((VarSet) o).checked);
+    }
+
+    public boolean meetChanged(DataflowObject o) {
+      // an intersection only changes the set by shrinking it
+      int before = checked.cardinality();
+      checked.and(((VarSet) o).checked);
+      return checked.cardinality() != before;
     }
 
     public void copy(DataflowObject o) {
-      checked = new HashSet<String>(((VarSet) o).checked);
+      checked = (BitSet) ((VarSet) o).checked.clone();
     }
 
     @Override
@@ -46,15 +56,29 @@ public class NullCheckOpt implements Flow.Analysis {
   }
 
   private TreeSet<Integer> redundant = new TreeSet<Integer>();
-  private ArrayList[] nonnullByIf;
+  private RegisterTable table;
+  // registers known to be non-null at the start of a quad because of an IFCMP_A against null
+  private BitSet[] nonnullByIf;
   private VarSet[] in, out;
   private VarSet entry, exit;
-  private boolean doOpt, doExt;
+  // the value update() computes into before comparing it with the old OUT
+  private VarSet scratch;
+  private boolean doOpt, doExt, print;
   private boolean isStatic;
+  private int changes;
+
+  public NullCheckOpt(boolean doOpt, boolean doExt) {
+    this(doOpt, doExt, !doOpt);
+  }
 
-  NullCheckOpt(boolean doOpt, boolean doExt) {
+  /**
+   * With doOpt and print both false the analysis only computes the
+   * redundant NULL_CHECKs, see getRedundant().
+   */
+  NullCheckOpt(boolean doOpt, boolean doExt, boolean print) {
     this.doOpt = doOpt;
     this.doExt = doExt;
+    this.print = print;
   }
 
   public void preprocess(ControlFlowGraph cfg) {
@@ -70,37 +94,30 @@ public class NullCheckOpt implements Flow.Analysis {
     }
     max += 1;
 
-    HashSet<String> universal = new HashSet<String>();
-    int numargs = cfg.getMethod().getParamTypes().length;
-    for (int i = 0; i < numargs; i++) {
-      universal.add("R" + i);
-    }
+    // the table holds the arguments and every register defined or used
+    table = new RegisterTable(cfg);
+    BitSet universal = new BitSet();
+    universal.set(0, table.size());
 
-    nonnullByIf = new ArrayList[max];
+    nonnullByIf = new BitSet[max];
     for (int i = 0; i < max; ++i) {
-      nonnullByIf[i] = new ArrayList();
+      nonnullByIf[i] = new BitSet();
     }
 
     qit = new QuadIterator(cfg);
     while (qit.hasNext()) {
       Quad q = qit.next();
-      for (Operand.RegisterOperand def : q.getDefinedRegisters()) {
-        universal.add(def.getRegister().toString());
-      }
-      for (Operand.RegisterOperand use : q.getUsedRegisters()) {
-        universal.add(use.getRegister().toString());
-      }
       Operator op = q.getOperator();
       if (op instanceof Operator.IntIfCmp.IFCMP_A) {
         List<Operand.RegisterOperand> use = q.getUsedRegisters();
         if ((Operand.Util.isNullConstant(Operator.IntIfCmp.getSrc1(q)) || Operand.Util.isNullConstant(Operator.IntIfCmp.getSrc2(q)))
             && !use.isEmpty()) {
-          String reg = use.get(0).getRegister().toString();
+          int reg = table.indexOf(use.get(0).getRegister());
           boolean eq = Operator.IntIfCmp.getCond(q).getCondition() == 0;
           BasicBlock fail = qit.getCurrentBasicBlock().getFallthroughSuccessor();
           BasicBlock success = Operator.IntIfCmp.getTarget(q).getTarget();
           BasicBlock nonnull = eq ? fail : success;
-          nonnullByIf[nonnull.getQuad(0).getID()].add(reg);
+          nonnullByIf[nonnull.getQuad(0).getID()].set(reg);
         }
       }
     }
@@ -111,23 +128,21 @@ public class NullCheckOpt implements Flow.Analysis {
     qit = new QuadIterator(cfg);
     while (qit.hasNext()) {
       int id = qit.next().getID();
-      in[id] = new VarSet();
+      // IN starts as Top as well, as InPlaceAnalysis requires; the other solvers overwrite it anyway
+      in[id] = new VarSet(universal);
       out[id] = new VarSet(universal);
     }
 
     entry = new VarSet();
     exit = new VarSet();
+    scratch = new VarSet();
   }
 
   public void postprocess(ControlFlowGraph cfg) {
+    changes = 0;
     if (doOpt) {
-      QuadIterator iter = new QuadIterator(cfg);
-      while (iter.hasNext()) {
-        if (this.redundant.contains(iter.next().getID())) {
-          iter.remove();
-        }
-      }
-    } else {
+      changes = removeQuads(cfg, redundant);
+    } else if (print) {
       System.out.print(cfg.getMethod().getName());
       for (int id : redundant) {
         System.out.print(" " + id);
@@ -136,6 +151,38 @@ public class NullCheckOpt implements Flow.Analysis {
     }
   }
 
+  /**
+   * Removes the quads whose ids are in ids from cfg, and returns how many there were.
+   */
+  static int removeQuads(ControlFlowGraph cfg, Set<Integer> ids) {
+    int removed = 0;
+    QuadIterator iter = new QuadIterator(cfg);
+    while (iter.hasNext()) {
+      if (ids.contains(iter.next().getID())) {
+        iter.remove();
+        ++removed;
+      }
+    }
+    if (removed > 0) {
+      CfgIndex.invalidate(cfg);
+    }
+    return removed;
+  }
+
+  /**
+   * Returns the ids of the redundant NULL_CHECKs found by the last run.
+   */
+  public Set<Integer> getRedundant() {
+    return Collections.unmodifiableSet(redundant);
+  }
+
+  /**
+   * Returns the number of NULL_CHECKs removed by the last run, 0 if doOpt is false.
+   */
+  public int getChanges() {
+    return changes;
+  }
+
   public boolean isForward() {
     return true;
   }
@@ -177,37 +224,64 @@ public class NullCheckOpt implements Flow.Analysis {
   }
 
   public void processQuad(Quad q) {
+    VarSet result = new VarSet();
+    transfer(q, in[q.getID()].checked, result.checked);
+    out[q.getID()] = result;
+  }
+
+  public MeetObject inRef(Quad q) {
+    return in[q.getID()];
+  }
+
+  public MeetObject outRef(Quad q) {
+    return out[q.getID()];
+  }
+
+  public boolean update(Quad q) {
+    int id = q.getID();
+    transfer(q, in[id].checked, scratch.checked);
+    if (scratch.equals(out[id])) {
+      return false;
+    }
+    // the old OUT becomes the next scratch value
+    VarSet old = out[id];
+    out[id] = scratch;
+    scratch = old;
+    return true;
+  }
+
+  // result = the registers checked after q, given those checked before it
+  private void transfer(Quad q, BitSet before, BitSet result) {
     int id = q.getID();
     Operator op = q.getOperator();
     List<Operand.RegisterOperand> use = q.getUsedRegisters(), def = q.getDefinedRegisters();
-    HashSet<String> tmp = new HashSet<String>(in[id].checked);
+    result.clear();
+    result.or(before);
     for (Operand.RegisterOperand r : def) {
-      tmp.remove(r.getRegister().toString());
+      result.clear(table.indexOf(r.getRegister()));
     }
     if (doExt) {
       if (!isStatic) {
-        tmp.add("R0"); // this
+        result.set(table.indexOfLocal(0)); // this
       }
       if (op instanceof Operator.New || op instanceof Operator.NewArray) {
-        tmp.add(def.get(0).getRegister().toString());
+        result.set(table.indexOf(def.get(0).getRegister()));
       }
       if (op instanceof Operator.Move && !use.isEmpty()) {
-        if (tmp.contains(use.get(0).getRegister().toString())) {
-          tmp.add(def.get(0).getRegister().toString());
+        if (result.get(table.indexOf(use.get(0).getRegister()))) {
+          result.set(table.indexOf(def.get(0).getRegister()));
         }
       }
-      tmp.addAll(nonnullByIf[id]);
+      result.or(nonnullByIf[id]);
     }
     if (op instanceof Operator.NullCheck) {
-      String reg = use.get(0).getRegister().toString();
-      if (tmp.contains(reg)) {
+      int reg = table.indexOf(use.get(0).getRegister());
+      if (result.get(reg)) {
         redundant.add(id);
       } else {
         redundant.remove(id);
       }
-      tmp.add(reg);
+      result.set(reg);
     }
-    out[id] = new VarSet();
-    out[id].checked = tmp;
   }
-}
\ No newline at end of file
+}
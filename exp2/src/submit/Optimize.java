@@ -1,8 +1,10 @@
 package submit;
 
 import examples.PrintQuads;
-import flow.FlowSolver;
+import flow.ParallelRunner;
+import flow.SolverMetrics;
 import joeq.Class.jq_Class;
+import joeq.Compiler.Quad.ControlFlowGraphVisitor;
 import joeq.Interpreter.QuadInterpreter;
 import joeq.Main.Driver;
 import joeq.Main.Helper;
@@ -17,24 +19,24 @@ class Optimize {
      * @param optimizeClasses a list of names of class that should be optimized
      * @param nullCheckOnly   if set to true, disable all optimizations except "remove redundant NULL_CHECKs."
      */
-    private static List<jq_Class> optimize(List<String> optimizeClasses, boolean nullCheckOnly) {
+    private static List<jq_Class> optimize(List<String> optimizeClasses, final boolean nullCheckOnly) {
         List<jq_Class> outputs = new ArrayList<jq_Class>();
-        FlowSolver solver = new FlowSolver();
         for (String className : optimizeClasses) {
-            jq_Class clazz = (jq_Class) Helper.load(className);
-            if (nullCheckOnly) {
-                solver.registerAnalysis(new NullCheckOpt(true, false));
-                Helper.runPass(clazz, solver);
-            } else {
-                for (int i = 0; i < 5; ++i) {
-                    solver.registerAnalysis(new NullCheckOpt(true, true));
-                    Helper.runPass(clazz, solver);
-                    solver.registerAnalysis(new LivenessOpt());
-                    Helper.runPass(clazz, solver);
+            outputs.add((jq_Class) Helper.load(className));
+        }
+        // the passes only look at one method at a time, so every method can
+        // be optimized to its own fixpoint independently
+        new ParallelRunner().run(outputs, null, new ParallelRunner.Factory() {
+            public ControlFlowGraphVisitor create() {
+                if (nullCheckOnly) {
+                    return new PassManager().addNullCheck(false);
                 }
+                return new PassManager().addConstantFold().addNullCheck(true).addBoundsCheck()
+                        .addCheckMotion().addCommonSubexpression().addCopyPropagation().addLiveness()
+                        .addFaintness();
             }
-            outputs.add(clazz);
-        }
+        });
+        SolverMetrics.report();
         return outputs;
     }
 
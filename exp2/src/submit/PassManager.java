@@ -0,0 +1,268 @@
+package submit;
+
+import flow.Flow;
+import flow.InPlaceSolver;
+import flow.SCCP;
+import joeq.Compiler.Quad.ControlFlowGraph;
+import joeq.Compiler.Quad.ControlFlowGraphVisitor;
+
+import java.util.*;
+
+/**
+ * Runs a sequence of optimization passes on a method until none of them
+ * changes it any more.
+ * <p>
+ * Every pass solves an analysis and transforms the cfg with the result.
+ * Afterwards the analysis counts as valid for the method: solving it again
+ * would give the same result, so the pass would find nothing new and isn't
+ * run. When a pass changes the cfg, every analysis it doesn't declare as
+ * preserved becomes invalid, so only the passes whose input may have changed
+ * run again.
+ * <p>
+ * The number of changes and rounds of every method is printed to System.err
+ * when the optimize.stats system property is set.
+ */
+class PassManager implements ControlFlowGraphVisitor {
+  // the names of the analyses
+  static final String CONSTANTS = "constants", NULL_CHECKS = "null checks", LIVENESS = "liveness",
+      FAINTNESS = "faintness", CHECK_PLACEMENT = "check placement", BOUNDS = "bounds",
+      COPIES = "copies", EXPRESSIONS = "expressions";
+
+  abstract static class Pass {
+    final String name, analysis;
+
+    Pass(String name, String analysis) {
+      this.name = name;
+      this.analysis = analysis;
+    }
+
+    /**
+     * Solves the analysis on cfg, transforms cfg with the result and
+     * returns the number of quads rewritten or removed.
+     */
+    abstract int run(ControlFlowGraph cfg);
+
+    /**
+     * Returns the analyses which are still valid after the last run changed
+     * the cfg.
+     */
+    abstract Collection<String> preserved();
+  }
+
+  // the manager gives up on a method after this many rounds, in case passes undo each other
+  private static final int MAX_ROUNDS = 100;
+
+  private ArrayList<Pass> passes = new ArrayList<Pass>();
+  // the valid analyses of the cfg being visited
+  private HashSet<String> valid = new HashSet<String>();
+  private boolean stats = Boolean.getBoolean("optimize.stats");
+  private int changes, rounds, solves;
+
+  public PassManager add(Pass pass) {
+    passes.add(pass);
+    return this;
+  }
+
+  public PassManager addConstantFold() {
+    return add(new Pass("ConstantFoldOpt", CONSTANTS) {
+      ConstantFoldOpt opt = new ConstantFoldOpt();
+
+      int run(ControlFlowGraph cfg) {
+        opt.fold(cfg, new SCCP(cfg));
+        return opt.getChanges();
+      }
+
+      Collection<String> preserved() {
+        // folding operands only touches int registers, which the null checks don't care about;
+        // folding a branch changes the edges, which invalidates everything.
+        // The constants stay true, only folding them again would find nothing new.
+        if (opt.foldedBranch()) {
+          return Collections.emptySet();
+        }
+        return Arrays.asList(CONSTANTS, NULL_CHECKS);
+      }
+    });
+  }
+
+  public PassManager addNullCheck(final boolean doExt) {
+    return add(new Pass("NullCheckOpt", NULL_CHECKS) {
+      int run(ControlFlowGraph cfg) {
+        Set<Integer> redundant;
+        if (DominatorNullCheckOpt.ENABLED) {
+          redundant = new HashSet<Integer>(new DominatorNullCheckOpt(false, doExt, false).find(cfg));
+        } else {
+          NullCheckOpt opt = new NullCheckOpt(false, doExt, false);
+          solve(opt, cfg);
+          redundant = new HashSet<Integer>(opt.getRedundant());
+        }
+        return NullCheckOpt.removeQuads(cfg, redundant);
+      }
+
+      Collection<String> preserved() {
+        // a redundant check doesn't add anything to what is known to be non-null,
+        // but it is a use of its register, so liveness changes
+        return Arrays.asList(CONSTANTS, NULL_CHECKS);
+      }
+    });
+  }
+
+  public PassManager addBoundsCheck() {
+    return add(new Pass("BoundsCheckOpt", BOUNDS) {
+      int run(ControlFlowGraph cfg) {
+        return NullCheckOpt.removeQuads(cfg, new HashSet<Integer>(new BoundsCheckOpt().find(cfg)));
+      }
+
+      Collection<String> preserved() {
+        // a check which can't fail adds nothing to the ranges, like a redundant null check
+        return Arrays.asList(CONSTANTS, NULL_CHECKS, BOUNDS);
+      }
+    });
+  }
+
+  public PassManager addCheckMotion() {
+    return add(new Pass("CheckMotionOpt", CHECK_PLACEMENT) {
+      CheckMotionOpt opt = new CheckMotionOpt();
+
+      int run(ControlFlowGraph cfg) {
+        opt.visitCFG(cfg);
+        return opt.getChanges();
+      }
+
+      Collection<String> preserved() {
+        // checks don't define anything the constants depend on, and placing
+        // them again would find nothing more to move; the rest saw the old checks
+        return Arrays.asList(CONSTANTS, CHECK_PLACEMENT);
+      }
+    });
+  }
+
+  public PassManager addCommonSubexpression() {
+    return add(new Pass("CommonSubexpressionOpt", EXPRESSIONS) {
+      int run(ControlFlowGraph cfg) {
+        CommonSubexpressionOpt opt = new CommonSubexpressionOpt(false);
+        solve(opt, cfg);
+        return opt.eliminate(cfg);
+      }
+
+      Collection<String> preserved() {
+        // the reused values move into new registers, which the constants don't know about, and
+        // the copies out of them make checks of different registers test the same value
+        return Collections.emptySet();
+      }
+    });
+  }
+
+  public PassManager addCopyPropagation() {
+    return add(new Pass("CopyPropagationOpt", COPIES) {
+      int run(ControlFlowGraph cfg) {
+        CopyPropagationOpt opt = new CopyPropagationOpt(false);
+        solve(opt, cfg);
+        return opt.propagate(cfg) + opt.coalesce(cfg);
+      }
+
+      Collection<String> preserved() {
+        // every register holds the same values as before wherever it is used, but the
+        // constants are looked up by register, a rewritten copy makes longer chains, and
+        // checking the source of a copy instead of its destination can make the checks
+        // of both registers redundant
+        return Collections.emptySet();
+      }
+    });
+  }
+
+  public PassManager addLiveness() {
+    return add(new Pass("LivenessOpt", LIVENESS) {
+      int run(ControlFlowGraph cfg) {
+        LivenessOpt opt = new LivenessOpt(false);
+        solve(opt, cfg);
+        return opt.removeDeadCode(cfg);
+      }
+
+      Collection<String> preserved() {
+        // the removed quads only define dead registers, so no other quad sees a different value;
+        // removeDeadCode keeps the liveness up to date and has already removed what became dead
+        return Arrays.asList(CONSTANTS, NULL_CHECKS, LIVENESS);
+      }
+    });
+  }
+
+  public PassManager addFaintness() {
+    return add(new Pass("FaintnessOpt", FAINTNESS) {
+      int run(ControlFlowGraph cfg) {
+        FaintnessOpt opt = new FaintnessOpt(false);
+        solve(opt, cfg);
+        return opt.removeDeadCode(cfg);
+      }
+
+      Collection<String> preserved() {
+        // the removed quads don't make anything less faint, so the faintness stays as it was;
+        // their uses are gone, which the plain liveness would have to see
+        return Arrays.asList(CONSTANTS, NULL_CHECKS, FAINTNESS);
+      }
+    });
+  }
+
+  private static void solve(Flow.Analysis analysis, ControlFlowGraph cfg) {
+    InPlaceSolver solver = new InPlaceSolver();
+    solver.registerAnalysis(analysis);
+    solver.visitCFG(cfg);
+  }
+
+  /**
+   * Returns the number of changes made to the last visited cfg.
+   */
+  public int getChanges() {
+    return changes;
+  }
+
+  /**
+   * Returns the number of rounds over the passes of the last visited cfg.
+   */
+  public int getRounds() {
+    return rounds;
+  }
+
+  public void visitCFG(ControlFlowGraph cfg) {
+    int n = passes.size();
+    int[] perPass = new int[n];
+    valid.clear();
+    changes = 0;
+    rounds = 0;
+    solves = 0;
+    while (rounds < MAX_ROUNDS) {
+      boolean ran = false;
+      for (int i = 0; i < n; ++i) {
+        Pass pass = passes.get(i);
+        if (valid.contains(pass.analysis)) {
+          continue;
+        }
+        ran = true;
+        int c = pass.run(cfg);
+        ++solves;
+        perPass[i] += c;
+        valid.add(pass.analysis);
+        if (c > 0) {
+          valid.retainAll(pass.preserved());
+        }
+      }
+      if (!ran) {
+        break;
+      }
+      ++rounds;
+    }
+    for (int c : perPass) {
+      changes += c;
+    }
+    valid.clear();
+
+    if (stats) {
+      StringBuilder sb = new StringBuilder();
+      sb.append(cfg.getMethod().getName()).append(": ").append(changes).append(" changes in ").append(rounds)
+          .append(" rounds, ").append(solves).append(" solves (");
+      for (int i = 0; i < n; ++i) {
+        sb.append(i == 0 ? "" : ", ").append(passes.get(i).name).append(" ").append(perPass[i]);
+      }
+      System.err.println(sb.append(")"));
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package submit;
+
+import flow.CfgIndex;
+import flow.Flow;
+import flow.RegisterTable;
+import joeq.Compiler.Quad.ControlFlowGraph;
+import joeq.Compiler.Quad.Quad;
+
+/**
+ * The range analysis of BoundsCheckOpt as a Flow.Analysis, for the solvers
+ * which widen: the values are BoundsCheckOpt.Ranges, and every quad has the
+ * transfer function BoundsCheckOpt uses. A Flow.Solver can't narrow the two
+ * edges of an IFCMP_I differently, so the loop conditions don't bound the
+ * counters here, and the ranges of a loop only go back from the ends of the
+ * int range through the narrowing rounds where the loop body bounds them.
+ * <p>
+ * After solving, postprocess prints every IN and OUT and checks that the
+ * result is a fixpoint: the IN of every quad contains the values flowing
+ * into it, and its OUT is the transfer of its IN.
+ */
+public class RangeAnalysis implements Flow.Analysis {
+  private RegisterTable table;
+  private BoundsCheckOpt transfer;
+  private CfgIndex index;
+  private BoundsCheckOpt.Ranges[] in, out;
+  private BoundsCheckOpt.Ranges entry, exit;
+  // the next OUT, swapped with the old one in processQuad, so that the
+  // solvers can compare the OUT they got before with the new one
+  private BoundsCheckOpt.Ranges next;
+
+  public void preprocess(ControlFlowGraph cfg) {
+    System.out.println("Method: " + cfg.getMethod().getName().toString());
+    index = CfgIndex.of(cfg);
+    table = new RegisterTable(cfg);
+    transfer = new BoundsCheckOpt(table);
+    in = new BoundsCheckOpt.Ranges[index.idLimit()];
+    out = new BoundsCheckOpt.Ranges[index.idLimit()];
+    for (int i = 0; i < in.length; i++) {
+      in[i] = new BoundsCheckOpt.Ranges(table);
+      out[i] = new BoundsCheckOpt.Ranges(table);
+    }
+    // nothing is known about the registers at the entry
+    entry = new BoundsCheckOpt.Ranges(table);
+    entry.setToBottom();
+    exit = new BoundsCheckOpt.Ranges(table);
+    next = new BoundsCheckOpt.Ranges(table);
+    System.out.println("Initialization completed.");
+  }
+
+  public void postprocess(ControlFlowGraph cfg) {
+    System.out.println("entry: " + entry);
+    for (int i = 0; i < index.size(); i++) {
+      int id = index.quad(i).getID();
+      System.out.println(id + " in:  " + in[id]);
+      System.out.println(id + " out: " + out[id]);
+    }
+    System.out.println("exit: " + exit);
+    System.out.println(checkFixpoint() ? "Fixpoint verified." : "Not a fixpoint.");
+  }
+
+  private boolean checkFixpoint() {
+    boolean ok = true;
+    BoundsCheckOpt.Ranges val = new BoundsCheckOpt.Ranges(table);
+    for (int i = 0; i < index.size(); i++) {
+      Quad q = index.quad(i);
+      for (int k = index.predStart[i]; k < index.predStart[i + 1]; k++) {
+        int p = index.preds[k];
+        val.copy(in[q.getID()]);
+        val.meetWith(p == CfgIndex.ENTRY_EXIT ? entry : out[index.quad(p).getID()]);
+        if (!val.equals(in[q.getID()])) {
+          System.out.println(q.getID() + ": IN misses the values from " +
+              (p == CfgIndex.ENTRY_EXIT ? "the entry" : String.valueOf(index.quad(p).getID())));
+          ok = false;
+        }
+      }
+      val.copy(in[q.getID()]);
+      transfer.transfer(q, val);
+      if (!val.equals(out[q.getID()])) {
+        System.out.println(q.getID() + ": OUT is not the transfer of IN");
+        ok = false;
+      }
+    }
+    return ok;
+  }
+
+  public boolean isForward() {
+    return true;
+  }
+
+  public Flow.DataflowObject getEntry() {
+    Flow.DataflowObject result = newTempVar();
+    result.copy(entry);
+    return result;
+  }
+
+  public void setEntry(Flow.DataflowObject value) {
+    entry.copy(value);
+  }
+
+  public Flow.DataflowObject getExit() {
+    Flow.DataflowObject result = newTempVar();
+    result.copy(exit);
+    return result;
+  }
+
+  public void setExit(Flow.DataflowObject value) {
+    exit.copy(value);
+  }
+
+  public Flow.DataflowObject getIn(Quad q) {
+    return in[q.getID()];
+  }
+
+  public Flow.DataflowObject getOut(Quad q) {
+    return out[q.getID()];
+  }
+
+  public void setIn(Quad q, Flow.DataflowObject value) {
+    in[q.getID()].copy(value);
+  }
+
+  public void setOut(Quad q, Flow.DataflowObject value) {
+    out[q.getID()].copy(value);
+  }
+
+  public Flow.DataflowObject newTempVar() {
+    return new BoundsCheckOpt.Ranges(table);
+  }
+
+  public void processQuad(Quad q) {
+    BoundsCheckOpt.Ranges val = next;
+    val.copy(in[q.getID()]);
+    transfer.transfer(q, val);
+    next = out[q.getID()];
+    out[q.getID()] = val;
+  }
+}
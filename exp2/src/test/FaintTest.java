@@ -0,0 +1,17 @@
+package test;
+
+public class FaintTest {
+  static int test(int n) {
+    int sum = 0;
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      sum += i;
+      count = count + 1;
+    }
+    return sum;
+  }
+
+  public static void main(String[] args) {
+    System.out.println(test(10));
+  }
+}
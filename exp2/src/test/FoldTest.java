@@ -0,0 +1,21 @@
+package test;
+
+public class FoldTest {
+  static final int SIZE = 8;
+
+  static int test(int a) {
+    int n = SIZE * 2;
+    int m = n - 6;
+    int r;
+    if (m > n) {
+      r = a / m;
+    } else {
+      r = a + m;
+    }
+    return r * n;
+  }
+
+  public static void main(String[] args) {
+    System.out.println(test(5));
+  }
+}
@@ -0,0 +1,32 @@
+package test;
+
+public class MotionTest {
+  // the null check of a.length in the return is redundant after the then branch
+  static int nullCheck(int[] a, int c) {
+    int x;
+    if (c > 0) {
+      x = a.length;
+    } else {
+      x = c * 2;
+    }
+    return x + a.length;
+  }
+
+  // a is checked before the branch, so only the bounds check of a[i] in the
+  // return is left, redundant after the then branch
+  static int boundsCheck(int[] a, int i, int c) {
+    int x = a.length;
+    if (c > 0) {
+      x += a[i];
+    } else {
+      x -= c;
+    }
+    return x + a[i];
+  }
+
+  public static void main(String[] args) {
+    int[] a = {3, 5, 7};
+    System.out.println(nullCheck(a, 1) + nullCheck(a, -1));
+    System.out.println(boundsCheck(a, 1, 1) + boundsCheck(a, 2, -1));
+  }
+}
@@ -0,0 +1,64 @@
+#!/bin/bash
+make
+
+for t in NullTest SkipList QuickSort LivenessTest; do
+    diff <(./run.sh flow.Flow flow.FlowSolver flow.ConstantProp test.$t) src/test/$t.cp.out
+    diff <(./run.sh flow.Flow flow.FlowSolver flow.Liveness test.$t) src/test/$t.lv.out
+    diff <(./run.sh flow.Flow flow.FlowSolver flow.Faintness test.$t) src/test/$t.ft.out
+    diff <(./run.sh flow.Flow flow.FlowSolver flow.ReachingDefs test.$t) src/test/$t.rd.out
+done
+
+# ranges only reach a fixpoint with widening. Where a solver widens depends
+# on the order it visits the quads in, so only FlowSolver has an expected
+# output; the other solvers which widen must reach some fixpoint, which
+# RangeAnalysis checks
+for t in NullTest SkipList QuickSort LivenessTest; do
+    diff <(./run.sh flow.Flow flow.FlowSolver submit.RangeAnalysis test.$t) src/test/$t.rg.out
+    for s in WorklistSolver OrderedSolver WtoSolver; do
+        ./run.sh flow.Flow flow.$s submit.RangeAnalysis test.$t | grep "Not a fixpoint"
+    done
+done
+
+for t in NullTest SkipList; do
+    diff <(./run.sh submit.FindRedundantNullChecks test.$t) src/test/$t.basic.out
+    diff <(./run.sh -Dnullcheck.dominators=true submit.FindRedundantNullChecks test.$t) src/test/$t.basic.out
+done
+
+# the output of a run, without the counts of the interpreter, which include
+# the quads of the class library
+run() {
+    ./run.sh "$@" | sed "s/ (null checks: .*//"
+}
+
+# the program output of the optimized classes
+diff <(run submit.Optimize test.NullTest -m test.NullTest) src/test/NullTest.opt.out
+diff <(run submit.Optimize test.SkipList -m test.SkipList -p 20) src/test/SkipList.opt.out
+diff <(run submit.Optimize test.QuickSort -m test.QuickSort -p 20) src/test/QuickSort.opt.out
+
+# the extra passes must not change what the programs print
+diff <(run submit.Optimize -e test.NullTest -m test.NullTest) src/test/NullTest.opt.out
+diff <(run submit.Optimize -e test.SkipList -m test.SkipList -p 20) src/test/SkipList.opt.out
+diff <(run submit.Optimize -e test.QuickSort -m test.QuickSort -p 20) src/test/QuickSort.opt.out
+
+# every cfg in SSA form, then the program output after converting back
+diff <(run flow.SSA test.NullTest -m test.NullTest) src/test/NullTest.ssa.out
+diff <(run flow.SSA test.SkipList -m test.SkipList -p 20) src/test/SkipList.ssa.out
+diff <(run flow.SSA test.QuickSort -m test.QuickSort -p 20) src/test/QuickSort.ssa.out
+diff <(run flow.SSA test.LivenessTest) src/test/LivenessTest.ssa.out
+
+# the quads after the extra passes, on classes written for one pass each:
+# FoldTest has a constant branch, whose dead block must be gone, and
+# FaintTest a loop counter which only feeds itself, so only faintness
+# removes it; the checks in the returns of MotionTest must move into the
+# else branches
+for t in FoldTest FaintTest MotionTest; do
+    diff <(run submit.Optimize -e test.$t --print -m test.$t) src/test/$t.ext.out
+done
+
+# the changes of every extra pass on every method, so that a pass which
+# stops finding what it used to shows up; on SkipList and LivenessTest
+# every pass but ConstantFoldOpt, CheckMotionOpt and FaintnessOpt changes
+# something, those three have FoldTest, MotionTest and FaintTest
+for t in NullTest SkipList QuickSort LivenessTest FoldTest FaintTest MotionTest; do
+    diff <(./run.sh -Doptimize.stats=true submit.Optimize -e test.$t 2>&1 >/dev/null | grep " changes in ") src/test/$t.stats.out
+done